@@ -0,0 +1,155 @@
+package com.github.ddth.zookeeper.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.github.ddth.zookeeper.ZooKeeperClient;
+
+/**
+ * JMH benchmarks of {@link ZooKeeperClient} hot paths, against an in-process
+ * {@link TestingServer}.
+ * 
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}; number of threads
+ * and other JMH options can be passed via {@code -Djmh.args="-t 64"}.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZooKeeperClientBenchmark {
+
+    private final static int NUM_CHILDREN = 100;
+    private final static int NUM_COLD_NODES = 1000;
+
+    /**
+     * ZooKeeper server and clients shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Env {
+        TestingServer zkServer;
+
+        /**
+         * Client with default settings (local cache enabled).
+         */
+        ZooKeeperClient zkClient;
+
+        /**
+         * Client without any cache: every read goes to the server.
+         */
+        ZooKeeperClient zkClientNoCache;
+
+        final AtomicLong counter = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            zkServer = new TestingServer();
+            zkClient = new ZooKeeperClient(zkServer.getConnectString());
+            zkClient.init();
+            zkClientNoCache = new ZooKeeperClient(zkServer.getConnectString())
+                    .setLocalCacheEnabled(false).setMissingNodesCacheSize(0);
+            zkClientNoCache.init();
+
+            zkClient.createNode("/bench/raw", "value");
+            zkClient.createNode("/bench/json", "{\"key\":\"value\",\"list\":[1,2,3]}");
+            zkClient.createNode("/bench/write", "value");
+            for (int i = 0; i < NUM_CHILDREN; i++) {
+                zkClient.createNode("/bench/children/" + i);
+            }
+            for (int i = 0; i < NUM_COLD_NODES; i++) {
+                zkClient.createNode("/bench/cold/" + i, "value-" + i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            zkClientNoCache.destroy();
+            zkClient.destroy();
+            zkServer.close();
+        }
+    }
+
+    /**
+     * Per-thread node, so that watcher latency is measured without
+     * interference from other threads.
+     */
+    @State(Scope.Thread)
+    public static class ThreadNode {
+        String path;
+        long version;
+
+        @Setup(Level.Trial)
+        public void setup(Env env, ThreadParams threadParams) {
+            path = "/bench/watched/" + threadParams.getThreadIndex();
+            env.zkClient.setData(path, "0", true);
+            env.zkClient.getData(path);
+        }
+    }
+
+    @Benchmark
+    public byte[] getDataRawCacheHit(Env env) {
+        return env.zkClient.getDataRaw("/bench/raw");
+    }
+
+    @Benchmark
+    public byte[] getDataRawCacheMiss(Env env) {
+        return env.zkClientNoCache.getDataRaw("/bench/cold/"
+                + env.counter.getAndIncrement() % NUM_COLD_NODES);
+    }
+
+    @Benchmark
+    public Object getDataJson(Env env) {
+        return env.zkClient.getDataJson("/bench/json");
+    }
+
+    @Benchmark
+    public boolean setData(Env env) {
+        return env.zkClient.setData("/bench/write", "value");
+    }
+
+    @Benchmark
+    public boolean createNode(Env env) {
+        return env.zkClient.createNode("/bench/create/" + env.counter.getAndIncrement());
+    }
+
+    @Benchmark
+    public int getChildren(Env env) {
+        return env.zkClient.getChildren("/bench/children").length;
+    }
+
+    /**
+     * Latency from a write (by another session) until the new value is
+     * visible through the local cache.
+     */
+    @Benchmark
+    public String watcherInvalidation(Env env, ThreadNode node) throws Exception {
+        byte[] value = String.valueOf(++node.version).getBytes();
+        env.zkClientNoCache.getCuratorFramework().setData().forPath(node.path, value);
+        byte[] data;
+        do {
+            data = env.zkClient.getDataRaw(node.path);
+        } while (!Arrays.equals(value, data));
+        return node.path;
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.ddth.zookeeper;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.RetrySleeper;
+
+/**
+ * Exponential backoff with jitter, bounded by number of retries and by total
+ * elapsed time.
+ * 
+ * <p>
+ * The n-th retry sleeps a random time between half and all of
+ * {@code min(maxSleepMs, baseSleepMs * 2^n)}, so that clients failing at the
+ * same time (e.g. during a leader election) do not retry in lockstep.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+    private final int baseSleepMs, maxSleepMs, maxRetries;
+    private final long maxElapsedMs;
+
+    /**
+     * @param baseSleepMs
+     *            sleep time before the first retry
+     * @param maxSleepMs
+     *            maximum sleep time between two retries
+     * @param maxRetries
+     *            maximum number of retries
+     * @param maxElapsedMs
+     *            no more retry once this time has elapsed since the operation
+     *            started; {@code 0} means no limit
+     */
+    public BackoffRetryPolicy(int baseSleepMs, int maxSleepMs, int maxRetries, long maxElapsedMs) {
+        this.baseSleepMs = Math.max(1, baseSleepMs);
+        this.maxSleepMs = Math.max(this.baseSleepMs, maxSleepMs);
+        this.maxRetries = maxRetries;
+        this.maxElapsedMs = maxElapsedMs;
+    }
+
+    public int getBaseSleepMs() {
+        return baseSleepMs;
+    }
+
+    public int getMaxSleepMs() {
+        return maxSleepMs;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getMaxElapsedMs() {
+        return maxElapsedMs;
+    }
+
+    /**
+     * Computes sleep time before a retry.
+     * 
+     * @param retryCount
+     *            number of retries so far, {@code 0} for the first retry
+     * @return
+     */
+    protected long getSleepTimeMs(int retryCount) {
+        long sleep = retryCount < 30 ? Math.min(maxSleepMs, (long) baseSleepMs << retryCount)
+                : maxSleepMs;
+        long half = sleep / 2;
+        return half + ThreadLocalRandom.current().nextLong(sleep - half + 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean allowRetry(int retryCount, long elapsedTimeMs, RetrySleeper sleeper) {
+        if (retryCount >= maxRetries) {
+            return false;
+        }
+        long sleep = getSleepTimeMs(retryCount);
+        if (maxElapsedMs > 0) {
+            long remaining = maxElapsedMs - elapsedTimeMs;
+            if (remaining <= 0) {
+                return false;
+            }
+            sleep = Math.min(sleep, remaining);
+        }
+        try {
+            sleeper.sleepFor(sleep, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
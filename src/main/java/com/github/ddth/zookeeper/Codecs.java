@@ -0,0 +1,166 @@
+package com.github.ddth.zookeeper;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.ddth.commons.utils.SerializationUtils;
+
+/**
+ * Built-in {@link ICodec}s.
+ * 
+ * <p>
+ * Other formats (Smile, CBOR, protobuf...) can be plugged in by implementing
+ * {@link ICodec}.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public final class Codecs {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private Codecs() {
+    }
+
+    /**
+     * Raw data, as-is.
+     */
+    public final static ICodec<byte[]> BYTES = new ICodec<byte[]>() {
+        @Override
+        public byte[] decode(byte[] data) {
+            return data;
+        }
+
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+    };
+
+    /**
+     * UTF-8 string.
+     */
+    public final static ICodec<String> STRING = new ICodec<String>() {
+        @Override
+        public String decode(byte[] data) {
+            return new String(data, UTF8);
+        }
+
+        @Override
+        public byte[] encode(String value) {
+            return value != null ? value.getBytes(UTF8) : null;
+        }
+    };
+
+    /**
+     * Long, stored as UTF-8 decimal string.
+     */
+    public final static ICodec<Long> LONG = new ICodec<Long>() {
+        @Override
+        public Long decode(byte[] data) {
+            return Long.valueOf(new String(data, UTF8).trim());
+        }
+
+        @Override
+        public byte[] encode(Long value) {
+            return value != null ? value.toString().getBytes(UTF8) : null;
+        }
+    };
+
+    /**
+     * Integer, stored as UTF-8 decimal string.
+     */
+    public final static ICodec<Integer> INTEGER = new ICodec<Integer>() {
+        @Override
+        public Integer decode(byte[] data) {
+            return Integer.valueOf(new String(data, UTF8).trim());
+        }
+
+        @Override
+        public byte[] encode(Integer value) {
+            return value != null ? value.toString().getBytes(UTF8) : null;
+        }
+    };
+
+    /**
+     * Boolean, stored as UTF-8 string {@code true} or {@code false}.
+     */
+    public final static ICodec<Boolean> BOOLEAN = new ICodec<Boolean>() {
+        @Override
+        public Boolean decode(byte[] data) {
+            return Boolean.valueOf(new String(data, UTF8).trim());
+        }
+
+        @Override
+        public byte[] encode(Boolean value) {
+            return value != null ? value.toString().getBytes(UTF8) : null;
+        }
+    };
+
+    /**
+     * JSON, decoded to generic objects ({@code Map}, {@code List}, strings,
+     * numbers...).
+     */
+    public final static ICodec<Object> JSON = new JsonCodec<Object>(Object.class);
+
+    /**
+     * JSON codec, delegating to {@link SerializationUtils} as
+     * {@link ZooKeeperClient#getDataJson(String)} always did.
+     */
+    private static class JsonCodec<T> implements ICodec<T> {
+        private final Class<T> clazz;
+
+        public JsonCodec(Class<T> clazz) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public T decode(byte[] data) throws Exception {
+            return SerializationUtils.fromJsonString(new String(data, UTF8), clazz);
+        }
+
+        @Override
+        public byte[] encode(T value) throws Exception {
+            String json = SerializationUtils.toJsonString(value);
+            return json != null ? json.getBytes(UTF8) : null;
+        }
+    }
+
+    private final static ConcurrentMap<Class<?>, ICodec<?>> CODECS = new ConcurrentHashMap<Class<?>, ICodec<?>>();
+    static {
+        CODECS.put(byte[].class, BYTES);
+        CODECS.put(String.class, STRING);
+        CODECS.put(Long.class, LONG);
+        CODECS.put(Integer.class, INTEGER);
+        CODECS.put(Boolean.class, BOOLEAN);
+        CODECS.put(Object.class, JSON);
+    }
+
+    /**
+     * Gets the codec of a class: {@link #BYTES}, {@link #STRING},
+     * {@link #LONG}, {@link #INTEGER}, {@link #BOOLEAN}, or JSON for other
+     * classes.
+     * 
+     * <p>
+     * The same instance is returned for the same class, so that decoded values
+     * are cached.
+     * </p>
+     * 
+     * @param clazz
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ICodec<T> forClass(Class<T> clazz) {
+        ICodec<?> codec = CODECS.get(clazz);
+        if (codec == null) {
+            ICodec<?> newCodec = new JsonCodec<T>(clazz);
+            codec = CODECS.putIfAbsent(clazz, newCodec);
+            if (codec == null) {
+                codec = newCodec;
+            }
+        }
+        return (ICodec<T>) codec;
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.ddth.zookeeper;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of node data.
+ * 
+ * <p>
+ * Compressed data is prefixed by a header: 4-byte magic number followed by
+ * 4-byte original length; data without the header (e.g. written by older
+ * clients) is read as-is.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+final class Compression {
+
+    private final static byte[] MAGIC = { 0x00, 'Z', 'D', 0x01 };
+    private final static int HEADER_LENGTH = MAGIC.length + 4;
+
+    /**
+     * Deflate cannot compress better than about 1032:1.
+     */
+    private final static int MAX_RATIO = 1032;
+
+    private Compression() {
+    }
+
+    /**
+     * Checks if data is prefixed by the compression header.
+     * 
+     * @param data
+     * @return
+     */
+    public static boolean isCompressed(byte[] data) {
+        if (data == null || data.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compresses data if it is at least {@code threshold} bytes long and
+     * compression actually saves space.
+     * 
+     * @param data
+     * @param threshold
+     *            minimum size (in bytes) of data to be compressed; negative
+     *            value disables compression
+     * @return compressed data, or {@code data} if not compressed
+     */
+    public static byte[] compress(byte[] data, int threshold) {
+        if (threshold < 0 || data == null || data.length < threshold) {
+            return data;
+        }
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[HEADER_LENGTH + data.length];
+            int length = HEADER_LENGTH;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished()) {
+                // not compressible
+                return data;
+            }
+            ByteBuffer.wrap(buffer).put(MAGIC).putInt(data.length);
+            byte[] result = new byte[length];
+            System.arraycopy(buffer, 0, result, 0, length);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses data, if compressed.
+     * 
+     * @param data
+     * @return decompressed data, or {@code data} if not compressed
+     */
+    public static byte[] decompress(byte[] data) {
+        if (!isCompressed(data)) {
+            return data;
+        }
+        int length = ByteBuffer.wrap(data, MAGIC.length, 4).getInt();
+        if (length < 0 || length > (long) data.length * MAX_RATIO) {
+            // not a valid header: read data as-is
+            return data;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_LENGTH, data.length - HEADER_LENGTH);
+            byte[] result = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int n = inflater.inflate(result, offset, length - offset);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater
+                        .needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            // header collision with uncompressed data: read it as-is
+            return offset == length ? result : data;
+        } catch (DataFormatException e) {
+            return data;
+        } finally {
+            inflater.end();
+        }
+    }
+}
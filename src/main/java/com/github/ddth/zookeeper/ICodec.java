@@ -0,0 +1,35 @@
+package com.github.ddth.zookeeper;
+
+/**
+ * Converts a node's raw data to/from a typed value.
+ * 
+ * <p>
+ * Codecs are used as keys of the decoded-value cache (by identity): use one
+ * shared instance per type, such as the ones provided by {@link Codecs}.
+ * Implementations must be thread-safe.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public interface ICodec<T> {
+
+    /**
+     * Decodes a node's raw data.
+     * 
+     * @param data
+     *            never {@code null}
+     * @return
+     * @throws Exception
+     */
+    public T decode(byte[] data) throws Exception;
+
+    /**
+     * Encodes a value to be written to a node.
+     * 
+     * @param value
+     * @return
+     * @throws Exception
+     */
+    public byte[] encode(T value) throws Exception;
+}
@@ -0,0 +1,25 @@
+package com.github.ddth.zookeeper;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+
+/**
+ * Visits nodes of a subtree, see
+ * {@link ZooKeeperClient#walk(String, INodeVisitor)}.
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public interface INodeVisitor {
+
+    /**
+     * Visits a node.
+     * 
+     * @param node
+     *            node's path, data and {@link org.apache.zookeeper.data.Stat}
+     * @param depth
+     *            depth of the node relative to the walk's root (root's depth
+     *            is {@code 0})
+     * @return {@code true} to continue walking, {@code false} to stop
+     */
+    public boolean visit(ChildData node, int depth);
+}
@@ -0,0 +1,68 @@
+package com.github.ddth.zookeeper;
+
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Collects metrics of a {@link ZooKeeperClient}.
+ * 
+ * <p>
+ * Implementations must be thread-safe and cheap: methods are called on the
+ * hot paths, including Curator's event thread.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public interface IZooKeeperMetrics {
+
+    public final static String OP_CREATE = "create";
+    public final static String OP_DELETE = "delete";
+    public final static String OP_EXISTS = "exists";
+    public final static String OP_GET_CHILDREN = "getChildren";
+    public final static String OP_GET_DATA = "getData";
+    public final static String OP_MULTI = "multi";
+    public final static String OP_SET_DATA = "setData";
+    public final static String OP_SYNC = "sync";
+
+    public final static String CACHE_RAW = "raw";
+    public final static String CACHE_JSON = "json";
+
+    /**
+     * Records completion of a request to ZooKeeper.
+     * 
+     * @param operation
+     *            one of {@code OP_xxx} constants
+     * @param durationNanos
+     */
+    public void recordLatency(String operation, long durationNanos);
+
+    /**
+     * Records a failed request to ZooKeeper.
+     * 
+     * @param operation
+     *            one of {@code OP_xxx} constants
+     * @param code
+     */
+    public void recordError(String operation, KeeperException.Code code);
+
+    /**
+     * Records a read served from cache.
+     * 
+     * @param cache
+     *            one of {@code CACHE_xxx} constants
+     */
+    public void recordCacheHit(String cache);
+
+    /**
+     * Records a read that missed cache.
+     * 
+     * @param cache
+     *            one of {@code CACHE_xxx} constants
+     */
+    public void recordCacheMiss(String cache);
+
+    /**
+     * Records a re-connection to ZooKeeper.
+     */
+    public void recordReconnect();
+}
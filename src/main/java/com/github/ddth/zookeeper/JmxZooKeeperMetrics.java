@@ -0,0 +1,302 @@
+package com.github.ddth.zookeeper;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Default {@link IZooKeeperMetrics} implementation, exposed as a JMX MBean.
+ * 
+ * <p>
+ * Latency percentiles are computed over the most recent
+ * {@link #LATENCY_SAMPLE_SIZE} requests of each operation.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public class JmxZooKeeperMetrics implements IZooKeeperMetrics, JmxZooKeeperMetricsMXBean {
+
+    /**
+     * Number of latency samples kept per operation.
+     */
+    public final static int LATENCY_SAMPLE_SIZE = 1024;
+
+    /**
+     * Latency samples of an operation (ring buffer).
+     */
+    private static class LatencySamples {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLongArray samples = new AtomicLongArray(LATENCY_SAMPLE_SIZE);
+
+        public void add(long durationNanos) {
+            long index = count.getAndIncrement();
+            samples.set((int) (index % LATENCY_SAMPLE_SIZE), durationNanos);
+        }
+
+        public long[] snapshot() {
+            int size = (int) Math.min(count.get(), LATENCY_SAMPLE_SIZE);
+            long[] result = new long[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = samples.get(i);
+            }
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    private final ZooKeeperClient zkClient;
+    private ObjectName objectName;
+
+    private final ConcurrentMap<String, LatencySamples> latencies = new ConcurrentHashMap<String, LatencySamples>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> cacheHits = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> cacheMisses = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    public JmxZooKeeperMetrics(ZooKeeperClient zkClient) {
+        this.zkClient = zkClient;
+    }
+
+    /**
+     * Registers this MBean to the platform MBean server.
+     * 
+     * @return
+     * @throws Exception
+     */
+    public JmxZooKeeperMetrics register() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.github.ddth.zookeeper:type=ZooKeeperClient,name="
+                + ObjectName.quote(zkClient.getConnectString() + "@"
+                        + Integer.toHexString(System.identityHashCode(zkClient))));
+        mbeanServer.registerMBean(this, name);
+        objectName = name;
+        return this;
+    }
+
+    /**
+     * Unregisters this MBean from the platform MBean server.
+     * 
+     * @throws Exception
+     */
+    public void unregister() throws Exception {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } finally {
+                objectName = null;
+            }
+        }
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    private static Map<String, Long> toMap(Map<String, AtomicLong> counters) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Entry<String, AtomicLong> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    private Map<String, Double> latencyPercentile(double percentile) {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Entry<String, LatencySamples> entry : latencies.entrySet()) {
+            long[] samples = entry.getValue().snapshot();
+            if (samples.length > 0) {
+                int index = (int) Math.ceil(percentile * samples.length) - 1;
+                long value = samples[Math.max(0, Math.min(index, samples.length - 1))];
+                result.put(entry.getKey(), value / 1E6);
+            }
+        }
+        return result;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordLatency(String operation, long durationNanos) {
+        LatencySamples samples = latencies.get(operation);
+        if (samples == null) {
+            LatencySamples newSamples = new LatencySamples();
+            samples = latencies.putIfAbsent(operation, newSamples);
+            if (samples == null) {
+                samples = newSamples;
+            }
+        }
+        samples.add(durationNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordError(String operation, KeeperException.Code code) {
+        counter(errors, operation + ":" + code).incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCacheHit(String cache) {
+        counter(cacheHits, cache).incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCacheMiss(String cache) {
+        counter(cacheMisses, cache).incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Entry<String, LatencySamples> entry : latencies.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().count.get());
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        return toMap(errors);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getLatencyMedianMs() {
+        return latencyPercentile(0.5);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getLatency90thPercentileMs() {
+        return latencyPercentile(0.9);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getLatency99thPercentileMs() {
+        return latencyPercentile(0.99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getLatencyMaxMs() {
+        return latencyPercentile(1.0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCacheHits() {
+        return toMap(cacheHits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCacheMisses() {
+        return toMap(cacheMisses);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getCacheHitRatio() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        Map<String, Long> hits = getCacheHits();
+        Map<String, Long> misses = getCacheMisses();
+        for (String cache : hits.keySet()) {
+            long hit = hits.get(cache);
+            long miss = misses.containsKey(cache) ? misses.get(cache) : 0;
+            result.put(cache, hit + miss > 0 ? (double) hit / (hit + miss) : 0.0);
+        }
+        for (String cache : misses.keySet()) {
+            if (!result.containsKey(cache)) {
+                result.put(cache, 0.0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWatcherCount() {
+        return zkClient.getWatchedNodeCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        latencies.clear();
+        errors.clear();
+        cacheHits.clear();
+        cacheMisses.clear();
+        reconnects.set(0);
+    }
+}
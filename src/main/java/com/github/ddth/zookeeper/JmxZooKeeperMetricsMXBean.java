@@ -0,0 +1,96 @@
+package com.github.ddth.zookeeper;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link JmxZooKeeperMetrics}.
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public interface JmxZooKeeperMetricsMXBean {
+
+    /**
+     * Number of requests, per operation.
+     * 
+     * @return
+     */
+    public Map<String, Long> getOperationCounts();
+
+    /**
+     * Number of failed requests, per {@code operation:KeeperException code}.
+     * 
+     * @return
+     */
+    public Map<String, Long> getErrorCounts();
+
+    /**
+     * Median latency (in milliseconds) of recent requests, per operation.
+     * 
+     * @return
+     */
+    public Map<String, Double> getLatencyMedianMs();
+
+    /**
+     * 90th percentile latency (in milliseconds) of recent requests, per
+     * operation.
+     * 
+     * @return
+     */
+    public Map<String, Double> getLatency90thPercentileMs();
+
+    /**
+     * 99th percentile latency (in milliseconds) of recent requests, per
+     * operation.
+     * 
+     * @return
+     */
+    public Map<String, Double> getLatency99thPercentileMs();
+
+    /**
+     * Maximum latency (in milliseconds) of recent requests, per operation.
+     * 
+     * @return
+     */
+    public Map<String, Double> getLatencyMaxMs();
+
+    /**
+     * Number of cache hits, per cache.
+     * 
+     * @return
+     */
+    public Map<String, Long> getCacheHits();
+
+    /**
+     * Number of cache misses, per cache.
+     * 
+     * @return
+     */
+    public Map<String, Long> getCacheMisses();
+
+    /**
+     * Cache hit ratio (0.0 - 1.0), per cache.
+     * 
+     * @return
+     */
+    public Map<String, Double> getCacheHitRatio();
+
+    /**
+     * Number of nodes currently watched by the client.
+     * 
+     * @return
+     */
+    public int getWatcherCount();
+
+    /**
+     * Number of re-connections to ZooKeeper.
+     * 
+     * @return
+     */
+    public long getReconnectCount();
+
+    /**
+     * Resets all counters and latency samples.
+     */
+    public void reset();
+}
@@ -0,0 +1,136 @@
+package com.github.ddth.zookeeper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Local file snapshot of cached nodes (path, {@link Stat} and data).
+ * 
+ * <p>
+ * File format: 4-byte magic number, followed by records of (path length,
+ * path, {@link Stat}, data length, data), terminated by path length
+ * {@code -1}. The file is memory-mapped when loaded, and replaced atomically
+ * when saved.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+final class LocalSnapshot {
+
+    private final static byte[] MAGIC = { 'Z', 'K', 'L', 0x01 };
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private LocalSnapshot() {
+    }
+
+    /**
+     * Loads nodes from a snapshot file.
+     * 
+     * @param file
+     * @return map of {path:node}, empty if the file does not exist
+     * @throws IOException
+     *             if the file cannot be read or is not a valid snapshot
+     */
+    public static Map<String, ChildData> load(File file) throws IOException {
+        Map<String, ChildData> result = new LinkedHashMap<String, ChildData>();
+        if (!file.isFile()) {
+            return result;
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            try {
+                for (byte b : MAGIC) {
+                    if (buffer.get() != b) {
+                        throw new IOException("Not a snapshot file: " + file);
+                    }
+                }
+                for (int pathLength = buffer.getInt(); pathLength >= 0; pathLength = buffer
+                        .getInt()) {
+                    String path = new String(_readBytes(buffer, pathLength), UTF8);
+                    Stat stat = new Stat(buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                            buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                            buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+                    byte[] data = _readBytes(buffer, buffer.getInt());
+                    result.put(path, new ChildData(path, stat, data));
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Truncated snapshot file: " + file, e);
+            }
+        } finally {
+            channel.close();
+        }
+        return result;
+    }
+
+    private static byte[] _readBytes(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        byte[] result = new byte[length];
+        buffer.get(result);
+        return result;
+    }
+
+    /**
+     * Saves nodes to a snapshot file, replacing the existing one.
+     * 
+     * @param file
+     * @param nodes
+     * @throws IOException
+     */
+    public static void save(File file, Collection<ChildData> nodes) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory()) {
+            Files.createDirectories(dir.toPath());
+        }
+        File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)));
+            try {
+                out.write(MAGIC);
+                for (ChildData node : nodes) {
+                    byte[] path = node.getPath().getBytes(UTF8);
+                    byte[] data = node.getData();
+                    out.writeInt(path.length);
+                    out.write(path);
+                    node.getStat().write(out);
+                    out.writeInt(data.length);
+                    out.write(data);
+                }
+                out.writeInt(-1);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+}
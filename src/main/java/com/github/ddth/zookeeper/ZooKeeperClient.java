@@ -1,22 +1,64 @@
 package com.github.ddth.zookeeper;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.RetrySleeper;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.api.BackgroundCallback;
 import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.api.CuratorEventType;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
 import org.apache.curator.framework.recipes.cache.ChildData;
-import org.apache.curator.framework.recipes.cache.NodeCache;
-import org.apache.curator.framework.recipes.cache.NodeCacheListener;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.Stat;
@@ -24,13 +66,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.ddth.cacheadapter.ICache;
-import com.github.ddth.commons.utils.SerializationUtils;
 import com.github.ddth.dao.BaseDao;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 /**
  * A simple ZooKeeper client.
@@ -47,18 +97,446 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
      */
     public final static int DEFAULT_SESSION_TIMEOUT = 30000;
 
+    /**
+     * Default connection timeout (5 seconds, in milliseconds).
+     * 
+     * @since 0.4.2
+     */
+    public final static int DEFAULT_CONNECTION_TIMEOUT = 5000;
+
     private String connectString;
     private int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+    private int connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+
+    /**
+     * Default retry policy: 3 retries, 2 seconds apart (as in previous
+     * versions); see {@link BackoffRetryPolicy} for a jittered exponential
+     * backoff.
+     * 
+     * @since 0.4.2
+     */
+    public final static RetryPolicy DEFAULT_RETRY_POLICY = new RetryNTimes(3, 2000);
+
+    private RetryPolicy retryPolicy = DEFAULT_RETRY_POLICY;
+
+    /**
+     * Deadline (in milliseconds) of each operation, {@code 0} for none.
+     * 
+     * @since 0.4.2
+     */
+    private long operationTimeout = 0;
+
+    /**
+     * Paths that currently have a data watch registered by this client.
+     * 
+     * @since 0.4.2
+     */
+    private Set<String> watchedPaths = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Default maximum number of nodes held by the local cache (10000).
+     * 
+     * @since 0.4.2
+     */
+    public final static long DEFAULT_LOCAL_CACHE_MAX_ENTRIES = 10000;
+
+    private boolean localCacheEnabled = true;
+    private long localCacheMaxEntries = DEFAULT_LOCAL_CACHE_MAX_ENTRIES;
+    private long localCacheMaxBytes = 0;
+
+    /**
+     * A node's data and {@link Stat}, as held by the local cache.
+     * 
+     * @since 0.4.2
+     */
+    private static class CachedNode {
+        private final byte[] data;
+        private final Stat stat;
+        private final AtomicReference<DecodedValue> decoded = new AtomicReference<DecodedValue>();
+
+        public CachedNode(byte[] data, Stat stat) {
+            this.data = data;
+            this.stat = stat;
+        }
+
+        /**
+         * Decodes node's data, reusing the value previously decoded by the
+         * same codec.
+         * 
+         * @param codec
+         * @return
+         * @throws Exception
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T decode(ICodec<T> codec) throws Exception {
+            T value = (T) getDecoded(codec);
+            if (value == null) {
+                value = (T) putDecoded(codec, codec.decode(data));
+            }
+            return value;
+        }
+
+        /**
+         * Gets a value derived from node's data.
+         * 
+         * @param key
+         *            the codec (or other identity) that derived the value
+         * @return
+         */
+        public Object getDecoded(Object key) {
+            for (DecodedValue decoded = this.decoded.get(); decoded != null;
+                    decoded = decoded.next) {
+                if (decoded.key == key) {
+                    return decoded.value;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Remembers a value derived from node's data, unless a value has
+         * already been remembered for the same key (e.g. by a concurrent
+         * decoder).
+         * 
+         * @param key
+         * @param value
+         * @return the value remembered for {@code key}
+         */
+        public Object putDecoded(Object key, Object value) {
+            while (true) {
+                DecodedValue head = decoded.get();
+                for (DecodedValue decoded = head; decoded != null; decoded = decoded.next) {
+                    if (decoded.key == key) {
+                        return decoded.value;
+                    }
+                }
+                if (decoded.compareAndSet(head, new DecodedValue(key, value, head))) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    /**
+     * A value decoded from a {@link CachedNode}, and the codec that decoded
+     * it; values decoded by other codecs are chained.
+     * 
+     * @since 0.4.2
+     */
+    private static class DecodedValue {
+        private final Object key;
+        private final Object value;
+        private final DecodedValue next;
+
+        public DecodedValue(Object key, Object value, DecodedValue next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Manifest of a large value, stored as data of the value's node: the value
+     * is split into chunks stored as child nodes {@code <generation>-<index>}.
+     * 
+     * @since 0.4.2
+     */
+    private static class LargeDataManifest {
+        private final static byte[] MAGIC = { 0x00, 'Z', 'M', 0x01 };
+        private final static int LENGTH = MAGIC.length + 8 + 4 + 4;
+
+        private final long generation;
+        private final int chunkCount;
+        private final int length;
+
+        public LargeDataManifest(long generation, int chunkCount, int length) {
+            this.generation = generation;
+            this.chunkCount = chunkCount;
+            this.length = length;
+        }
+
+        /**
+         * Parses a manifest.
+         * 
+         * @param data
+         * @return the manifest, or {@code null} if {@code data} is not a
+         *         manifest
+         */
+        public static LargeDataManifest parse(byte[] data) {
+            if (data == null || data.length != LENGTH
+                    || !Arrays.equals(MAGIC, Arrays.copyOf(data, MAGIC.length))) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data, MAGIC.length, LENGTH - MAGIC.length);
+            return new LargeDataManifest(buffer.getLong(), buffer.getInt(), buffer.getInt());
+        }
+
+        public byte[] toBytes() {
+            return ByteBuffer.allocate(LENGTH).put(MAGIC).putLong(generation).putInt(chunkCount)
+                    .putInt(length).array();
+        }
+
+        public String chunkPath(String path, int index) {
+            return (path.endsWith("/") ? path : path + "/") + Long.toHexString(generation) + "-"
+                    + index;
+        }
+    }
+
+    /**
+     * In-process cache of watched nodes, kept up-to-date by watch
+     * notifications.
+     * 
+     * @since 0.4.2
+     */
+    private Cache<String, CachedNode> localCache;
+
+    /**
+     * Default maximum number of missing nodes to remember (10000).
+     * 
+     * @since 0.4.2
+     */
+    public final static long DEFAULT_MISSING_NODES_CACHE_SIZE = 10000;
+
+    private long missingNodesCacheSize = DEFAULT_MISSING_NODES_CACHE_SIZE;
+
+    /**
+     * Paths known not to exist; each entry is guarded by an exists-watch that
+     * removes it when the node is created.
+     * 
+     * @since 0.4.2
+     */
+    private Cache<String, Boolean> missingNodes;
+
+    /**
+     * In-flight reads, so that concurrent cache misses on the same path share
+     * one request.
+     * 
+     * @since 0.4.2
+     */
+    private ConcurrentMap<String, ListenableFuture<ChildData>> pendingReads = new ConcurrentHashMap<String, ListenableFuture<ChildData>>();
+
+    /**
+     * ZooKeeper's event threads (one per session, replaced when the session
+     * expires), captured by watchers and successful background callbacks;
+     * see {@link #_isEventThread()}.
+     * 
+     * @since 0.4.2
+     */
+    private final Set<Thread> eventThreads = Collections.newSetFromMap(new MapMaker().weakKeys()
+            .<Thread, Boolean> makeMap());
 
-    private LoadingCache<String, NodeCache> cacheNodeWatcher;
+    /**
+     * Watcher registered on nodes read by this client, to keep cached data
+     * up-to-date.
+     * 
+     * @since 0.4.2
+     */
+    private final Watcher nodeWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            eventThreads.add(Thread.currentThread());
+            try {
+                _eventNodeChanged(event);
+            } catch (Exception e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    };
 
     private String cacheNameRaw, cacheNameJson;
 
+    /**
+     * Sink of operation metrics; a {@link JmxZooKeeperMetrics} is registered
+     * by {@link #init()} if none has been set.
+     * 
+     * @since 0.4.2
+     */
+    private IZooKeeperMetrics metrics;
+    private JmxZooKeeperMetrics jmxMetrics;
+
+    /**
+     * Written data of at least this size (in bytes) is compressed; negative
+     * value disables compression.
+     * 
+     * @since 0.4.2
+     */
+    private int compressionThreshold = -1;
+
+    /**
+     * Default size of chunks of large values (512 KB), well below
+     * ZooKeeper's default {@code jute.maxbuffer} (1 MB).
+     * 
+     * @since 0.4.2
+     */
+    public final static int DEFAULT_LARGE_DATA_CHUNK_SIZE = 512 * 1024;
+
+    private int largeDataChunkSize = DEFAULT_LARGE_DATA_CHUNK_SIZE;
+
+    /**
+     * File to persist cached nodes to; {@code null} (default) disables the
+     * local snapshot.
+     * 
+     * @since 0.4.2
+     */
+    private String localSnapshotFile;
+
+    /**
+     * Nodes served without being watched until revalidated against the
+     * server: loaded from the local snapshot, or kept when the connection was
+     * lost (see {@link ReadPolicy#SERVE_STALE}).
+     * 
+     * @since 0.4.2
+     */
+    private ConcurrentMap<String, ChildData> staleNodes = new ConcurrentHashMap<String, ChildData>();
+
+    /**
+     * Nodes whose watch was dropped when the connection was lost, with their
+     * last-known data and {@link Stat} (if they were cached), to be re-watched
+     * after reconnect.
+     * 
+     * @since 0.4.2
+     */
+    private ConcurrentMap<String, ChildData> lostWatches = new ConcurrentHashMap<String, ChildData>();
+
+    /**
+     * Ephemeral (non-sequential) nodes created by this client, {path:data}, to
+     * be re-created after the session is lost.
+     * 
+     * @since 0.4.2
+     */
+    private ConcurrentMap<String, byte[]> ephemeralNodes = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * Maximum number of in-flight requests while recovering from a lost
+     * session.
+     * 
+     * @since 0.4.2
+     */
+    private final static int RECOVERY_MAX_CONCURRENCY = 32;
+
+    /**
+     * How reads behave when the connection to ZooKeeper is lost.
+     * 
+     * @since 0.4.2
+     */
+    public static enum ReadPolicy {
+        /**
+         * Cached data is dropped when the connection is lost, so reads fail
+         * until reconnected (default).
+         */
+        FAIL,
+
+        /**
+         * Last-known data of cached nodes is kept when the connection is lost
+         * and served until reconnected, then revalidated in background. See
+         * {@link ZooKeeperClient#getStaleness()}.
+         */
+        SERVE_STALE
+    }
+
+    private ReadPolicy readPolicy = ReadPolicy.FAIL;
+
+    /**
+     * Consistency of a single read, see
+     * {@link ZooKeeperClient#getDataRaw(String, Consistency)}.
+     * 
+     * @since 0.4.2
+     */
+    public static enum Consistency {
+        /**
+         * ZooKeeper's default: the read may be served from cache or by a
+         * server lagging behind the leader, so it may miss writes recently
+         * committed by other clients or sessions (default).
+         */
+        SEQUENTIAL,
+
+        /**
+         * The serving session is {@link ZooKeeperClient#sync(String) synced}
+         * with the leader before the node is read from ZooKeeper, bypassing
+         * caches: all writes committed before the read started are seen, at
+         * the cost of an extra round trip through the leader.
+         */
+        LINEARIZABLE
+    }
+
+    /**
+     * Last known ID of each session, and sessions lost since last connected,
+     * to tell whether a reconnected session survived.
+     * 
+     * @since 0.4.2
+     */
+    private ConcurrentMap<CuratorFramework, Long> sessionIds = new ConcurrentHashMap<CuratorFramework, Long>();
+    private Set<CuratorFramework> lostSessions = Collections
+            .newSetFromMap(new ConcurrentHashMap<CuratorFramework, Boolean>());
+
+    /**
+     * Time (epoch millis) each session's connection was suspended/lost, absent
+     * while connected.
+     * 
+     * @since 0.4.2
+     */
+    private ConcurrentMap<CuratorFramework, Long> disconnectedTimestamps = new ConcurrentHashMap<CuratorFramework, Long>();
+
+    /**
+     * Roots of subtrees to be mirrored in memory.
+     * 
+     * @since 0.4.2
+     */
+    private Set<String> mirrorRoots = new LinkedHashSet<String>();
+    private List<Mirror> mirrors = new CopyOnWriteArrayList<Mirror>();
+
+    /**
+     * An in-memory mirror of a subtree, maintained by a single
+     * {@link TreeCache}.
+     * 
+     * @since 0.4.2
+     */
+    private static class Mirror {
+        private final String root;
+        private final TreeCache treeCache;
+        private volatile boolean initialized = false;
+
+        public Mirror(String root, TreeCache treeCache) {
+            this.root = root;
+            this.treeCache = treeCache;
+        }
+
+        /**
+         * Checks if a path belongs to this mirror.
+         * 
+         * @param path
+         * @return
+         */
+        public boolean covers(String path) {
+            return path.equals(root) || path.startsWith(root.endsWith("/") ? root : root + "/");
+        }
+    }
+
     /**
      * @since 0.2.0
      */
     private CuratorFramework curatorFramework;
 
+    /**
+     * Separate sessions for reads, see {@link #setReadSessionCount(int)} and
+     * {@link #setReadConnectString(String)}.
+     * 
+     * @since 0.4.2
+     */
+    private List<CuratorFramework> readCuratorFrameworks = new CopyOnWriteArrayList<CuratorFramework>();
+    private String readConnectString;
+    private int readSessionCount = 0;
+
+    /**
+     * Allow connecting to a server in read-only mode (ZooKeeper's
+     * {@code canBeReadOnly}).
+     * 
+     * @since 0.4.2
+     */
+    private boolean readOnlyModeAllowed = false;
+    private volatile boolean readOnly = false;
+
     /**
      * Constructs a new {@link ZooKeeperClient} instance.
      */
@@ -153,6 +631,99 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
         return this;
     }
 
+    /**
+     * Gets ZooKeeper connection timeout (in milliseconds).
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets ZooKeeper connection timeout (in milliseconds): how long an
+     * operation waits for the connection to be (re-)established before it
+     * fails or is retried. Takes effect on {@link #init()}.
+     * 
+     * @param connectionTimeoutMs
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setConnectionTimeout(int connectionTimeoutMs) {
+        this.connectionTimeout = connectionTimeoutMs;
+        return this;
+    }
+
+    /**
+     * Gets retry policy of operations.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets retry policy of operations that fail because of connection
+     * issues. Takes effect on {@link #init()}.
+     * 
+     * <p>
+     * Default policy is {@link #DEFAULT_RETRY_POLICY}; see also
+     * {@link BackoffRetryPolicy}.
+     * </p>
+     * 
+     * @param retryPolicy
+     *            {@code null} to use the default policy
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy != null ? retryPolicy : DEFAULT_RETRY_POLICY;
+        return this;
+    }
+
+    /**
+     * Gets deadline (in milliseconds) of each operation, {@code 0} for none.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public long getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    /**
+     * Sets deadline (in milliseconds) of each operation; {@code 0} (default)
+     * for none.
+     * 
+     * <p>
+     * Blocking calls served by background requests (reads, and multi-node
+     * calls such as {@link #getDataRaw(Collection)}) fail with
+     * {@link ZooKeeperException.OperationTimeoutException} if the result
+     * takes longer than this. No operation is retried past the deadline, but
+     * synchronous ones (e.g. {@link #setData(String, byte[])},
+     * {@link #createNode(String)}, {@link #nodeExists(String)},
+     * {@link #getChildren(String)}, {@link #removeNode(String)} and
+     * transactions) are not interrupted: an attempt in progress may
+     * additionally wait up to the connection timeout while disconnected, and
+     * they fail with their usual exception. Calls made of several steps
+     * (e.g. recursive removal, large values) apply the deadline to each step.
+     * Asynchronous calls are not bounded; use
+     * {@code Future.get(timeout, unit)} for per-call deadlines. The retry
+     * deadline takes effect on {@link #init()}.
+     * </p>
+     * 
+     * @param operationTimeoutMs
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setOperationTimeout(long operationTimeoutMs) {
+        this.operationTimeout = operationTimeoutMs;
+        return this;
+    }
+
     /**
      * Gets ZooKeeper session timeout (in milliseconds).
      * 
@@ -222,566 +793,4393 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
     }
 
     /**
-     * Gets the underlying {@link CuratorFramework}.
+     * Is the built-in local cache enabled?
      * 
      * @return
-     * @since 0.4.0
+     * @since 0.4.2
      */
-    public CuratorFramework getCuratorFramework() {
-        return curatorFramework;
+    public boolean isLocalCacheEnabled() {
+        return localCacheEnabled;
     }
 
     /**
-     * Gets the underlying {@link CuratorFramework}.
+     * Enables/Disables the built-in local cache (enabled by default).
+     * 
+     * <p>
+     * The local cache holds data and {@link Stat} of nodes read by this
+     * client, and is updated directly from watch notifications; it is
+     * consulted before the cache specified by {@link #setCacheNameRaw(String)}.
+     * </p>
+     * 
+     * <p>
+     * Note: must be called before {@link #init()}.
+     * </p>
      * 
+     * @param localCacheEnabled
      * @return
-     * @since 0.2.0
-     * @deprecated since 0.4.0, use {@link #getCuratorFramework()}
+     * @since 0.4.2
      */
-    @Deprecated
-    public CuratorFramework curatorFramework() {
-        return curatorFramework;
+    public ZooKeeperClient setLocalCacheEnabled(boolean localCacheEnabled) {
+        this.localCacheEnabled = localCacheEnabled;
+        return this;
     }
 
-    // private final static List<ACL> ACL = ZooDefs.Ids.OPEN_ACL_UNSAFE;
-
     /**
-     * Creates a new node, with initial data.
+     * Gets maximum number of nodes held by the local cache.
      * 
-     * @param path
-     * @param data
-     * @param createMode
      * @return
-     * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    private boolean _create(String path, byte[] data, CreateMode createMode)
-            throws ZooKeeperException {
-        if (data == null) {
-            data = ArrayUtils.EMPTY_BYTE_ARRAY;
-        }
-        try {
-            curatorFramework.create().creatingParentsIfNeeded().withMode(createMode)
-                    .forPath(path, data);
-            _invalidateCache(path);
-            return true;
-        } catch (InterruptedException e) {
-            return false;
-        } catch (KeeperException.NodeExistsException e) {
-            return false;
-        } catch (KeeperException.ConnectionLossException e) {
-            throw new ZooKeeperException.ClientDisconnectedException();
-        } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
-            }
-        }
+    public long getLocalCacheMaxEntries() {
+        return localCacheMaxEntries;
     }
 
     /**
-     * Watches a node for changes.
+     * Sets maximum number of nodes held by the local cache. Ignored if
+     * {@link #setLocalCacheMaxBytes(long)} is set.
      * 
-     * @param path
-     * @throws ZooKeeperException
-     */
-    private void _watchNode(String path) throws ZooKeeperException {
-        try {
-            cacheNodeWatcher.get(path);
-        } catch (Exception e) {
+     * <p>
+     * Note: must be called before {@link #init()}.
+     * </p>
+     * 
+     * @param localCacheMaxEntries
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setLocalCacheMaxEntries(long localCacheMaxEntries) {
+        this.localCacheMaxEntries = localCacheMaxEntries;
+        return this;
+    }
+
+    /**
+     * Gets maximum total size (in bytes) of node data held by the local cache.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public long getLocalCacheMaxBytes() {
+        return localCacheMaxBytes;
+    }
+
+    /**
+     * Sets maximum total size (in bytes) of node data held by the local cache.
+     * If set to a positive value, it takes precedence over
+     * {@link #setLocalCacheMaxEntries(long)}.
+     * 
+     * <p>
+     * Note: must be called before {@link #init()}.
+     * </p>
+     * 
+     * @param localCacheMaxBytes
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setLocalCacheMaxBytes(long localCacheMaxBytes) {
+        this.localCacheMaxBytes = localCacheMaxBytes;
+        return this;
+    }
+
+    /**
+     * Gets maximum number of non-existent nodes to remember.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public long getMissingNodesCacheSize() {
+        return missingNodesCacheSize;
+    }
+
+    /**
+     * Sets maximum number of non-existent nodes to remember, so that repeated
+     * reads of missing nodes are answered locally. Set to {@code 0} to
+     * disable.
+     * 
+     * <p>
+     * Note: must be called before {@link #init()}.
+     * </p>
+     * 
+     * @param missingNodesCacheSize
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setMissingNodesCacheSize(long missingNodesCacheSize) {
+        this.missingNodesCacheSize = missingNodesCacheSize;
+        return this;
+    }
+
+    /**
+     * Gets the sink of operation metrics.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public IZooKeeperMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the sink of operation metrics.
+     * 
+     * <p>
+     * If not set, a {@link JmxZooKeeperMetrics} is created and registered to
+     * the platform MBean server by {@link #init()}, and unregistered by
+     * {@link #destroy()}: a client that is never destroyed leaves its MBean
+     * (and itself, referenced by the MBean) registered. Applications that
+     * create many short-lived clients must destroy them, or set their own
+     * sink.
+     * </p>
+     * 
+     * <p>
+     * Note: must be called before {@link #init()}.
+     * </p>
+     * 
+     * @param metrics
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setMetrics(IZooKeeperMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Gets minimum size (in bytes) of data to be compressed when written.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets minimum size (in bytes) of data to be compressed (Deflate) when
+     * written. Negative value (default) disables compression.
+     * 
+     * <p>
+     * Compressed data is marked by a header, so nodes written uncompressed
+     * (e.g. by older clients) are still read correctly; compressed nodes are
+     * always decompressed on read, whatever this setting. Cached data is held
+     * decompressed, so a node is decompressed once per version.
+     * </p>
+     * 
+     * <p>
+     * Note: clients that do not support compression will read compressed
+     * nodes as-is.
+     * </p>
+     * 
+     * @param compressionThreshold
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    /**
+     * Gets size (in bytes) of chunks of large values.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public int getLargeDataChunkSize() {
+        return largeDataChunkSize;
+    }
+
+    /**
+     * Sets size (in bytes) of chunks of large values, see
+     * {@link #setLargeData(String, byte[])}. Must be smaller than the server's
+     * {@code jute.maxbuffer}.
+     * 
+     * @param largeDataChunkSize
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setLargeDataChunkSize(int largeDataChunkSize) {
+        this.largeDataChunkSize = largeDataChunkSize;
+        return this;
+    }
+
+    /**
+     * Gets the file cached nodes are persisted to.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public String getLocalSnapshotFile() {
+        return localSnapshotFile;
+    }
+
+    /**
+     * Sets the file cached nodes are persisted to; {@code null} (default)
+     * disables the local snapshot.
+     * 
+     * <p>
+     * Nodes held by the local cache are saved to this file by
+     * {@link #destroy()} (or {@link #saveLocalSnapshot()}), and loaded back by
+     * {@link #init()}: loaded nodes are served immediately, even if the
+     * ZooKeeper ensemble is unreachable, while they are revalidated (and
+     * watched) in background. A node is read from ZooKeeper once revalidated.
+     * </p>
+     * 
+     * @param localSnapshotFile
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setLocalSnapshotFile(String localSnapshotFile) {
+        this.localSnapshotFile = localSnapshotFile;
+        return this;
+    }
+
+    /**
+     * Gets how reads behave when the connection to ZooKeeper is lost.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public ReadPolicy getReadPolicy() {
+        return readPolicy;
+    }
+
+    /**
+     * Sets how reads behave when the connection to ZooKeeper is lost, see
+     * {@link ReadPolicy}.
+     * 
+     * @param readPolicy
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setReadPolicy(ReadPolicy readPolicy) {
+        this.readPolicy = readPolicy != null ? readPolicy : ReadPolicy.FAIL;
+        return this;
+    }
+
+    /**
+     * Checks if the client is currently connected to ZooKeeper.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public boolean isConnected() {
+        return disconnectedTimestamps.isEmpty() && curatorFramework != null
+                && curatorFramework.getZookeeperClient().isConnected();
+    }
+
+    /**
+     * Gets how long (in milliseconds) the connection of a session serving
+     * reads has been suspended, lost or read-only, i.e. maximum age of data
+     * served from cache; {@code 0} while connected.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public long getStaleness() {
+        long timestamp = 0;
+        for (Entry<CuratorFramework, Long> entry : disconnectedTimestamps.entrySet()) {
+            if (entry.getKey() == curatorFramework && !readCuratorFrameworks.isEmpty()) {
+                // the main session does not serve reads
+                continue;
+            }
+            if (timestamp == 0 || entry.getValue() < timestamp) {
+                timestamp = entry.getValue();
+            }
+        }
+        return timestamp != 0 ? Math.max(1, System.currentTimeMillis() - timestamp) : 0;
+    }
+
+    /**
+     * Gets number of nodes currently being watched by this client.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public int getWatchedNodeCount() {
+        return watchedPaths.size();
+    }
+
+    /**
+     * Gets roots of subtrees that are mirrored in memory.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public String[] getMirrorRoots() {
+        return mirrorRoots.toArray(ArrayUtils.EMPTY_STRING_ARRAY);
+    }
+
+    /**
+     * Sets roots of subtrees to be mirrored in memory.
+     * 
+     * <p>
+     * Each subtree is kept in memory by one tree-level watcher;
+     * {@link #getDataRaw(String)}, {@link #getChildren(String)} and
+     * {@link #nodeExists(String)} on paths under a mirror root are served from
+     * memory without contacting the server once the mirror has been fully
+     * loaded. Mirrored data is eventually consistent: a write is visible to
+     * mirrored reads once its change notification has arrived.
+     * </p>
+     * 
+     * <p>
+     * Note: must be called before {@link #init()}.
+     * </p>
+     * 
+     * @param mirrorRoots
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setMirrorRoots(String... mirrorRoots) {
+        this.mirrorRoots.clear();
+        if (mirrorRoots != null) {
+            for (String root : mirrorRoots) {
+                addMirrorRoot(root);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a root of subtree to be mirrored in memory.
+     * 
+     * <p>
+     * Note: must be called before {@link #init()}.
+     * </p>
+     * 
+     * @param mirrorRoot
+     * @return
+     * @since 0.4.2
+     * @see #setMirrorRoots(String...)
+     */
+    public ZooKeeperClient addMirrorRoot(String mirrorRoot) {
+        this.mirrorRoots.add(mirrorRoot);
+        return this;
+    }
+
+    /**
+     * Gets the underlying {@link CuratorFramework}.
+     * 
+     * @return
+     * @since 0.4.0
+     */
+    public CuratorFramework getCuratorFramework() {
+        return curatorFramework;
+    }
+
+    /**
+     * Gets the {@link CuratorFramework} reads are sent to: the (first)
+     * separate read session if configured, the main one otherwise.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public CuratorFramework getReadCuratorFramework() {
+        List<CuratorFramework> readers = readCuratorFrameworks;
+        try {
+            return readers.isEmpty() ? curatorFramework : readers.get(0);
+        } catch (IndexOutOfBoundsException e) {
+            // closed in the meantime
+            return curatorFramework;
+        }
+    }
+
+    /**
+     * Gets the {@link CuratorFramework} reads of a path are sent to: one of
+     * the separate read sessions if configured, the main one otherwise.
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     */
+    public CuratorFramework getReadCuratorFramework(String path) {
+        return _reader(path);
+    }
+
+    /**
+     * Gets number of separate read sessions.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public int getReadSessionCount() {
+        return readSessionCount;
+    }
+
+    /**
+     * Sets number of separate sessions reads are spread across; {@code 0}
+     * (default) for none, i.e. reads go through the main session (or through
+     * one read session if {@link #setReadConnectString(String)} is set).
+     * Takes effect on {@link #init()}.
+     * 
+     * <p>
+     * Each session connects to a server picked at random from the
+     * connection string, so read throughput scales with the ensemble size.
+     * Reads of a path always go through the same session (by path hash), so
+     * that they never go back in time and the path's watch fires on that
+     * session. Writes always use the main session; see
+     * {@link Consistency#LINEARIZABLE} for read-your-writes reads.
+     * </p>
+     * 
+     * @param readSessionCount
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setReadSessionCount(int readSessionCount) {
+        this.readSessionCount = readSessionCount;
+        return this;
+    }
+
+    /**
+     * Gets connection string of the separate read session.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public String getReadConnectString() {
+        return readConnectString;
+    }
+
+    /**
+     * Sets connection string of separate session(s) that reads are sent to,
+     * e.g. a nearby observer; {@code null} (default) to use the main
+     * connection string. Takes effect on {@link #init()}.
+     * 
+     * <p>
+     * Node reads, existence checks, children listing and the watches keeping
+     * cached data up-to-date use the read session; writes always use the main
+     * session. Data written by this client is cached right away, but other
+     * reads may lag behind writes until the read server catches up.
+     * </p>
+     * 
+     * @param readConnectString
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperClient setReadConnectString(String readConnectString) {
+        this.readConnectString = readConnectString;
+        return this;
+    }
+
+    /**
+     * Checks if connecting to a server in read-only mode is allowed.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public boolean isReadOnlyModeAllowed() {
+        return readOnlyModeAllowed;
+    }
+
+    /**
+     * Allows connecting to a partitioned server in read-only mode
+     * (ZooKeeper's {@code canBeReadOnly}), so that reads keep working during a
+     * quorum loss; servers must have read-only mode enabled
+     * ({@code readonlymode.enabled}). Takes effect on {@link #init()}.
+     * 
+     * @param readOnlyModeAllowed
+     * @return
+     * @since 0.4.2
+     * @see #isReadOnly()
+     */
+    public ZooKeeperClient setReadOnlyModeAllowed(boolean readOnlyModeAllowed) {
+        this.readOnlyModeAllowed = readOnlyModeAllowed;
+        return this;
+    }
+
+    /**
+     * Checks if the main session is currently connected in read-only mode:
+     * writes fail and data read may be stale.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Gets the underlying {@link CuratorFramework}.
+     * 
+     * @return
+     * @since 0.2.0
+     * @deprecated since 0.4.0, use {@link #getCuratorFramework()}
+     */
+    @Deprecated
+    public CuratorFramework curatorFramework() {
+        return curatorFramework;
+    }
+
+    // private final static List<ACL> ACL = ZooDefs.Ids.OPEN_ACL_UNSAFE;
+
+    /**
+     * Creates a new node, with initial data.
+     * 
+     * @param path
+     * @param data
+     * @param createMode
+     * @return
+     * @throws ZooKeeperException
+     */
+    private boolean _create(final String path, byte[] data, final CreateMode createMode)
+            throws ZooKeeperException {
+        final byte[] value = data != null ? data : ArrayUtils.EMPTY_BYTE_ARRAY;
+        return _timed(IZooKeeperMetrics.OP_CREATE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try {
+                    curatorFramework.create().creatingParentsIfNeeded().withMode(createMode)
+                            .forPath(path, _compress(value));
+                } catch (InterruptedException e) {
+                    return Boolean.FALSE;
+                } catch (KeeperException.NodeExistsException e) {
+                    return Boolean.FALSE;
+                }
+                _invalidateCache(path);
+                if (createMode.isEphemeral()) {
+                    ephemeralNodes.put(path, value);
+                }
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    /**
+     * Compresses data to be written, if compression is enabled and data is
+     * large enough.
+     * 
+     * @param data
+     * @return
+     * @since 0.4.2
+     */
+    private byte[] _compress(byte[] data) {
+        return Compression.compress(data, compressionThreshold);
+    }
+
+    /**
+     * Decompresses data read from a node, if compressed; the locally cached
+     * copy is reused if it is of the same version.
+     * 
+     * @param path
+     * @param data
+     * @param stat
+     * @return
+     * @since 0.4.2
+     */
+    private byte[] _decompress(String path, byte[] data, Stat stat) {
+        if (!Compression.isCompressed(data)) {
+            return data;
+        }
+        CachedNode cachedNode = _getFromLocalCache(path);
+        if (cachedNode != null && stat != null && cachedNode.stat.getMzxid() == stat.getMzxid()) {
+            return cachedNode.data;
+        }
+        return Compression.decompress(data);
+    }
+
+    /**
+     * Checks if a node is known not to exist, by its mirror or by the
+     * missing-node cache.
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     */
+    private boolean _isMissingNode(String path) {
+        Mirror mirror = _mirrorFor(path);
+        if (mirror != null && _mirrorMissing(mirror, path)) {
+            return true;
+        }
+        return missingNodes != null && missingNodes.getIfPresent(path) != null;
+    }
+
+    /**
+     * Registers an exists-watch on a node that was found missing, in
+     * background, and remembers the node as missing until it is created.
+     * 
+     * @param path
+     * @since 0.4.2
+     */
+    private void _watchMissingNode(final String path) {
+        if (missingNodes == null || !watchedPaths.add(path)) {
+            return;
+        }
+        AsyncCallback<Void> callback = new AsyncCallback<Void>(IZooKeeperMetrics.OP_EXISTS) {
+            @Override
+            protected Void onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case NONODE:
+                    // the watch has been registered, and will fire
+                    // NodeCreated after this response
+                    missingNodes.put(path, Boolean.TRUE);
+                    return null;
+                case OK:
+                    return null;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+
+            @Override
+            protected void onFailure(ZooKeeperException e) {
+                watchedPaths.remove(path);
+                LOGGER.warn(e.getMessage(), e);
+            }
+        };
+        try {
+            _reader(path).checkExists().usingWatcher(nodeWatcher).inBackground(callback)
+                    .forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+    }
+
+    /**
+     * Reads raw data from a node in background.
+     * 
+     * <p>
+     * A data watch is registered by the same request if the node is not being
+     * watched yet, so that a cold read costs one round trip.
+     * </p>
+     * 
+     * @param path
+     * @param callback
+     * @since 0.4.2
+     */
+    private void _readRawAsync(final String path, final AsyncCallback<?> callback) {
+        final boolean watch = watchedPaths.add(path);
+        try {
+            if (watch) {
+                _reader(path).getData().usingWatcher(nodeWatcher)
+                        .inBackground(new BackgroundCallback() {
+                            @Override
+                            public void processResult(CuratorFramework client, CuratorEvent event) {
+                                if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+                                    watchedPaths.remove(path);
+                                }
+                                callback.processResult(client, event);
+                            }
+                        }).forPath(path);
+            } else {
+                _reader(path).getData().inBackground(callback).forPath(path);
+            }
+        } catch (Exception e) {
+            if (watch) {
+                watchedPaths.remove(path);
+            }
+            callback.fail(e);
+        }
+    }
+
+    /**
+     * Reads Json data from a node.
+     * 
+     * @param path
+     * @return
+     * @throws ZooKeeperException
+     */
+    private Object _readJson(String path) throws ZooKeeperException {
+        return getData(path, Codecs.JSON);
+    }
+
+    /**
+     * Decodes data read from a node; the decoded value is cached along with
+     * the node if {@code data} comes from the local cache.
+     * 
+     * @param path
+     * @param data
+     * @param codec
+     * @return
+     * @throws Exception
+     * @since 0.4.2
+     */
+    private <T> T _decode(String path, byte[] data, ICodec<T> codec) throws Exception {
+        if (data == null) {
+            return null;
+        }
+        CachedNode cachedNode = _getFromLocalCache(path);
+        return cachedNode != null && cachedNode.data == data ? cachedNode.decode(codec) : codec
+                .decode(data);
+    }
+
+    /**
+     * Writes raw data to a node.
+     * 
+     * <p>
+     * If {@code createNodes} is {@code true}, the node is created (with
+     * parents, as {@link CreateMode#PERSISTENT}) only when the write fails
+     * because the node does not exist, and written again if it has been
+     * created by someone else in the meantime; writing to an existing node
+     * costs one round trip.
+     * </p>
+     * 
+     * @param path
+     * @param data
+     * @param createNodes
+     * @return
+     * @throws ZooKeeperException
+     */
+    private boolean _write(final String path, final byte[] data, final boolean createNodes)
+            throws ZooKeeperException {
+        final byte[] payload = _compress(data);
+        return _timed(IZooKeeperMetrics.OP_SET_DATA, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try {
+                    Stat stat;
+                    try {
+                        stat = curatorFramework.setData().forPath(path, payload);
+                    } catch (KeeperException.NoNodeException e) {
+                        if (!createNodes) {
+                            return Boolean.FALSE;
+                        }
+                        try {
+                            curatorFramework.create().creatingParentsIfNeeded()
+                                    .withMode(CreateMode.PERSISTENT)
+                                    .forPath(path,
+                                            payload != null ? payload
+                                                    : ArrayUtils.EMPTY_BYTE_ARRAY);
+                            _invalidateCache(path, data);
+                            return Boolean.TRUE;
+                        } catch (KeeperException.NodeExistsException e1) {
+                            // node has just been created by someone else
+                            stat = curatorFramework.setData().forPath(path, payload);
+                        }
+                    }
+                    _invalidateCache(path, data, stat);
+                    return Boolean.TRUE;
+                } catch (InterruptedException e) {
+                    return Boolean.FALSE;
+                } catch (KeeperException.NoNodeException e) {
+                    return Boolean.FALSE;
+                }
+            }
+        });
+    }
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Creates an empty ephemeral node.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @return
+     * @since 0.4.1
+     * @throws ZooKeeperException
+     */
+    public boolean createEphemeralNode(String path) throws ZooKeeperException {
+        return _create(path, null, CreateMode.EPHEMERAL);
+    }
+
+    /**
+     * Creates an ephemeral node, with initial values.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.1
+     * @throws ZooKeeperException
+     */
+    public boolean createEphemeralNode(String path, byte[] value) throws ZooKeeperException {
+        return _create(path, value, CreateMode.EPHEMERAL);
+    }
+
+    /**
+     * Creates an ephemeral node, with initial values.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.1
+     * @throws ZooKeeperException
+     */
+    public boolean createEphemeralNode(String path, String value) throws ZooKeeperException {
+        return _create(path, value != null ? value.getBytes(UTF8) : null, CreateMode.EPHEMERAL);
+    }
+
+    /**
+     * Creates an empty node.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @return
+     * @throws ZooKeeperException
+     */
+    public boolean createNode(String path) throws ZooKeeperException {
+        return _create(path, null, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Creates a node, with initial values.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @throws ZooKeeperException
+     */
+    public boolean createNode(String path, byte[] value) throws ZooKeeperException {
+        return _create(path, value, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Creates a node, with initial values.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @throws ZooKeeperException
+     */
+    public boolean createNode(String path, String value) throws ZooKeeperException {
+        return _create(path, value != null ? value.getBytes(UTF8) : null, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Brings the session that reads {@code path} up to date with the leader,
+     * so that subsequent reads of {@code path} see all writes committed
+     * before this call (including this client's own writes).
+     * 
+     * @param path
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    public void sync(String path) throws ZooKeeperException {
+        _await(_syncAsync(path));
+    }
+
+    /**
+     * Syncs the session that reads {@code path}, asynchronously.
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     */
+    private ListenableFuture<Void> _syncAsync(final String path) {
+        AsyncCallback<Void> callback = new AsyncCallback<Void>(IZooKeeperMetrics.OP_SYNC) {
+            @Override
+            protected Void onResult(KeeperException.Code code, CuratorEvent event) {
+                if (code != KeeperException.Code.OK) {
+                    throw _toZooKeeperException(code, path);
+                }
+                return null;
+            }
+        };
+        try {
+            _reader(path).sync().inBackground(callback).forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
+    }
+
+    /**
+     * Syncs and reads a node from ZooKeeper, bypassing caches, blocking.
+     * 
+     * @param path
+     * @return the node, or {@code null} if it does not exist
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private ChildData _syncRead(String path) throws ZooKeeperException {
+        if (!_isEventThread()) {
+            return _await(_syncReadAsync(path));
+        }
+        // requests of a session are processed in order: the read is served
+        // after the sync, no need to wait for it
+        _syncAsync(path);
+        return _loadSync(path);
+    }
+
+    /**
+     * Syncs and reads a node from ZooKeeper in background, bypassing caches.
+     * 
+     * @param path
+     * @return the node, or {@code null} if it does not exist
+     * @since 0.4.2
+     */
+    private ListenableFuture<ChildData> _syncReadAsync(final String path) {
+        return Futures.transform(_syncAsync(path), new AsyncFunction<Void, ChildData>() {
+            @Override
+            public ListenableFuture<ChildData> apply(Void input) {
+                // do not join a read that may have been served before the sync
+                pendingReads.remove(path);
+                return _loadAsync(path);
+            }
+        });
+    }
+
+    /**
+     * Checks if a path exists.
+     * 
+     * @param path
+     * @return
+     * @throws ZooKeeperException
+     */
+    public boolean nodeExists(final String path) throws ZooKeeperException {
+        Mirror mirror = _mirrorFor(path);
+        if (mirror != null && mirror.treeCache.getCurrentData(path) != null) {
+            return true;
+        }
+        if (_isMissingNode(path)) {
+            return false;
+        }
+        return _timed(IZooKeeperMetrics.OP_EXISTS, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return _reader(path).checkExists().forPath(path) != null;
+            }
+        });
+    }
+
+    /**
+     * Gets children of a node.
+     * 
+     * @param path
+     * @return
+     * @since 0.2.0
+     * @throws ZooKeeperException
+     */
+    public String[] getChildren(final String path) throws ZooKeeperException {
+        Mirror mirror = _mirrorFor(path);
+        String[] mirrorChildren = mirror != null ? _mirrorChildren(mirror, path) : null;
+        if (mirrorChildren != null || (mirror != null && _mirrorMissing(mirror, path))) {
+            return mirrorChildren;
+        }
+        return _getChildren(_reader(path), path);
+    }
+
+    /**
+     * Gets children of a node, through the specified session.
+     * 
+     * @param framework
+     * @param path
+     * @return
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private String[] _getChildren(final CuratorFramework framework, final String path)
+            throws ZooKeeperException {
+        return _timed(IZooKeeperMetrics.OP_GET_CHILDREN, new Callable<String[]>() {
+            @Override
+            public String[] call() throws Exception {
+                try {
+                    List<String> result = framework.getChildren().forPath(path);
+                    return result != null ? result.toArray(ArrayUtils.EMPTY_STRING_ARRAY) : null;
+                } catch (KeeperException.NoNodeException e) {
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Maximum number of nodes being read concurrently by
+     * {@link #walk(String, int, Predicate, INodeVisitor)}.
+     * 
+     * @since 0.4.2
+     */
+    private final static int WALK_MAX_CONCURRENCY = 64;
+
+    /**
+     * A node to be read, then visited, by
+     * {@link #walk(String, int, Predicate, INodeVisitor)}.
+     * 
+     * @since 0.4.2
+     */
+    private static class WalkEntry {
+        private final String path;
+        private final int depth;
+        private ChildData node;
+        private String[] children;
+        private Throwable error;
+
+        public WalkEntry(String path, int depth) {
+            this.path = path;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Walks a whole subtree.
+     * 
+     * @param root
+     * @param visitor
+     * @return number of visited nodes
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     * @see #walk(String, int, Predicate, INodeVisitor)
+     */
+    public int walk(String root, INodeVisitor visitor) throws ZooKeeperException {
+        return walk(root, Integer.MAX_VALUE, null, visitor);
+    }
+
+    /**
+     * Walks a subtree, visiting each node with its data and {@link Stat}.
+     * 
+     * <p>
+     * Nodes are read from the server (bypassing caches, without registering
+     * watches) with up to {@value #WALK_MAX_CONCURRENCY} concurrent
+     * background reads, and visited incrementally on the calling thread:
+     * only the nodes yet to be visited are held in memory, not the whole
+     * subtree. A node is visited before its descendants, otherwise nodes are
+     * visited in no particular order. Nodes removed during the walk are
+     * skipped.
+     * </p>
+     * 
+     * @param root
+     * @param maxDepth
+     *            maximum depth of nodes to visit, relative to {@code root}
+     *            ({@code 0} to visit {@code root} only)
+     * @param pathFilter
+     *            if not {@code null}, descendants whose path do not match are
+     *            neither visited nor descended into
+     * @param visitor
+     * @return number of visited nodes
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public int walk(String root, int maxDepth, Predicate<String> pathFilter,
+            INodeVisitor visitor) throws ZooKeeperException {
+        BlockingQueue<WalkEntry> completed = new LinkedBlockingQueue<WalkEntry>();
+        Deque<WalkEntry> pending = new ArrayDeque<WalkEntry>();
+        pending.push(new WalkEntry(root, 0));
+        int inFlight = 0, visited = 0;
+        while (!pending.isEmpty() || inFlight > 0) {
+            while (inFlight < WALK_MAX_CONCURRENCY && !pending.isEmpty()) {
+                _readWalkEntryAsync(pending.pop(), maxDepth, completed);
+                inFlight++;
+            }
+            WalkEntry entry;
+            try {
+                entry = completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ZooKeeperException(e);
+            }
+            inFlight--;
+            if (entry.error != null) {
+                throw _toZooKeeperException(entry.error);
+            }
+            if (entry.node == null) {
+                // removed in the meantime
+                continue;
+            }
+            visited++;
+            if (!visitor.visit(entry.node, entry.depth)) {
+                break;
+            }
+            if (entry.children != null) {
+                for (int i = entry.children.length - 1; i >= 0; i--) {
+                    String childPath = ZKPaths.makePath(entry.path, entry.children[i]);
+                    if (pathFilter == null || pathFilter.apply(childPath)) {
+                        pending.push(new WalkEntry(childPath, entry.depth + 1));
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Reads a node, and its children if not deeper than {@code maxDepth}, in
+     * background; the entry is put to {@code completed} once done.
+     * 
+     * @param entry
+     * @param maxDepth
+     * @param completed
+     * @since 0.4.2
+     */
+    private void _readWalkEntryAsync(final WalkEntry entry, int maxDepth,
+            final BlockingQueue<WalkEntry> completed) {
+        final ListenableFuture<ChildData> nodeFuture = _readNodeAsync(entry.path);
+        final ListenableFuture<String[]> childrenFuture = entry.depth < maxDepth
+                ? _getChildrenAsync(_reader(entry.path), entry.path) : Futures
+                .immediateFuture((String[]) null);
+        List<ListenableFuture<?>> futures = Arrays.<ListenableFuture<?>> asList(nodeFuture,
+                childrenFuture);
+        Futures.allAsList(futures).addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    entry.node = nodeFuture.get();
+                    entry.children = childrenFuture.get();
+                } catch (ExecutionException e) {
+                    entry.error = e.getCause();
+                } catch (Exception e) {
+                    entry.error = e;
+                }
+                completed.add(entry);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Reads a node from ZooKeeper in background, without watching nor
+     * caching it.
+     * 
+     * @param path
+     * @return the node, or {@code null} if it does not exist
+     * @since 0.4.2
+     */
+    private ListenableFuture<ChildData> _readNodeAsync(final String path) {
+        AsyncCallback<ChildData> callback = new AsyncCallback<ChildData>(
+                IZooKeeperMetrics.OP_GET_DATA) {
+            @Override
+            protected ChildData onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    return new ChildData(path, event.getStat(), _decompress(path,
+                            event.getData(), event.getStat()));
+                case NONODE:
+                    return null;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+        };
+        try {
+            _reader(path).getData().inBackground(callback).forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
+    }
+
+    /**
+     * Reads raw data from a node.
+     * 
+     * @param path
+     * @return
+     * @throws ZooKeeperException
+     */
+    public byte[] getDataRaw(String path) throws ZooKeeperException {
+        Mirror mirror = _mirrorFor(path);
+        ChildData mirrorNode = mirror != null ? _mirrorNode(mirror, path) : null;
+        if (mirrorNode != null) {
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+            return mirrorNode.getData();
+        }
+        CachedNode cachedNode = _getFromLocalCache(path);
+        if (cachedNode != null) {
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+            return cachedNode.data;
+        }
+        ChildData staleNode = staleNodes.get(path);
+        if (staleNode != null) {
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+            return staleNode.getData();
+        }
+        try {
+            byte[] data = getFromCache(cacheNameRaw, path, byte[].class);
+            if (data != null || _isMissingNode(path)) {
+                _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+                return data;
+            }
+            // cache miss: join (or start) the in-flight read of this path
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, false);
+            ChildData node = _load(path);
+            return node != null ? node.getData() : null;
+        } catch (ZooKeeperException.NodeNotFoundException e) {
+            return null;
+        } catch (Exception e) {
+            if (e instanceof ZooKeeperException) {
+                throw (ZooKeeperException) e;
+            } else {
+                throw new ZooKeeperException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads raw data from a node with the specified consistency.
+     * 
+     * <p>
+     * {@link Consistency#LINEARIZABLE} reads see writes committed before
+     * the call by any client or session (e.g. the main session when reads go
+     * through separate read sessions); use them only on paths that need it.
+     * </p>
+     * 
+     * @param path
+     * @param consistency
+     * @return
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    public byte[] getDataRaw(String path, Consistency consistency) throws ZooKeeperException {
+        if (consistency != Consistency.LINEARIZABLE) {
+            return getDataRaw(path);
+        }
+        ChildData node = _syncRead(path);
+        return node != null ? node.getData() : null;
+    }
+
+    /**
+     * Reads raw data from a node, optionally with read-your-writes
+     * consistency.
+     * 
+     * @param path
+     * @param sync
+     *            {@code true} for a {@link Consistency#LINEARIZABLE} read,
+     *            {@code false} for a {@link Consistency#SEQUENTIAL} one
+     * @return
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    public byte[] getDataRaw(String path, boolean sync) throws ZooKeeperException {
+        return getDataRaw(path, sync ? Consistency.LINEARIZABLE : Consistency.SEQUENTIAL);
+    }
+
+    /**
+     * Reads raw data from a node, together with node's {@link Stat}.
+     * 
+     * @param path
+     * @return the node, or {@code null} if it does not exist
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public ChildData getDataWithStat(String path) throws ZooKeeperException {
+        Mirror mirror = _mirrorFor(path);
+        ChildData mirrorNode = mirror != null ? _mirrorNode(mirror, path) : null;
+        if (mirrorNode != null) {
+            return mirrorNode;
+        }
+        CachedNode cachedNode = _getFromLocalCache(path);
+        if (cachedNode != null) {
+            return new ChildData(path, cachedNode.stat, cachedNode.data);
+        }
+        ChildData staleNode = staleNodes.get(path);
+        if (staleNode != null) {
+            return staleNode;
+        }
+        return _isMissingNode(path) ? null : _load(path);
+    }
+
+    /**
+     * Reads raw data from a node, together with node's {@link Stat}, with the
+     * specified consistency.
+     * 
+     * @param path
+     * @param consistency
+     * @return the node, or {@code null} if it does not exist
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     * @see #getDataRaw(String, Consistency)
+     */
+    public ChildData getDataWithStat(String path, Consistency consistency)
+            throws ZooKeeperException {
+        return consistency == Consistency.LINEARIZABLE ? _syncRead(path) : getDataWithStat(path);
+    }
+
+    /**
+     * Reads raw data from a node, together with node's {@link Stat},
+     * optionally with read-your-writes consistency.
+     * 
+     * @param path
+     * @param sync
+     *            see {@link #getDataRaw(String, boolean)}
+     * @return the node, or {@code null} if it does not exist
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    public ChildData getDataWithStat(String path, boolean sync) throws ZooKeeperException {
+        return getDataWithStat(path, sync ? Consistency.LINEARIZABLE : Consistency.SEQUENTIAL);
+    }
+
+    /**
+     * Reads raw data from multiple nodes.
+     * 
+     * <p>
+     * Cached nodes are served from cache, all other nodes are fetched
+     * concurrently in background so that the whole batch costs roughly one
+     * round trip.
+     * </p>
+     * 
+     * @param paths
+     * @return map of {path:data}, in the same order as {@code paths}; value is
+     *         {@code null} if the node does not exist
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public Map<String, byte[]> getDataRaw(Collection<String> paths) throws ZooKeeperException {
+        if (_isEventThread()) {
+            Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+            for (String path : paths) {
+                if (!result.containsKey(path)) {
+                    result.put(path, getDataRaw(path));
+                }
+            }
+            return result;
+        }
+        Map<String, ListenableFuture<byte[]>> futures = new LinkedHashMap<String, ListenableFuture<byte[]>>();
+        for (String path : paths) {
+            if (!futures.containsKey(path)) {
+                futures.put(path, getDataRawAsync(path));
+            }
+        }
+        // one deadline for the whole batch
+        List<byte[]> values = _await(Futures.allAsList(futures.values()));
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        int i = 0;
+        for (String path : futures.keySet()) {
+            result.put(path, values.get(i++));
+        }
+        return result;
+    }
+
+    /**
+     * Reads data from multiple nodes.
+     * 
+     * @param paths
+     * @return map of {path:data}, in the same order as {@code paths}; value is
+     *         {@code null} if the node does not exist
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     * @see #getDataRaw(Collection)
+     */
+    public Map<String, String> getData(Collection<String> paths) throws ZooKeeperException {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Entry<String, byte[]> entry : getDataRaw(paths).entrySet()) {
+            byte[] data = entry.getValue();
+            result.put(entry.getKey(), data != null ? new String(data, UTF8) : null);
+        }
+        return result;
+    }
+
+    /**
+     * Reads data from a node as a JSON object.
+     * 
+     * @param path
+     * @return
+     * @since 0.3.1
+     * @throws ZooKeeperException
+     */
+    public Object getDataJson(String path) throws ZooKeeperException {
+        try {
+            Object data = getFromCache(cacheNameJson, path);
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_JSON, data != null);
+            if (data == null) {
+                data = _readJson(path);
+                putToCache(cacheNameJson, path, data);
+            }
+            return data;
+        } catch (ZooKeeperException.NodeNotFoundException e) {
+            return null;
+        } catch (Exception e) {
             if (e instanceof ZooKeeperException) {
                 throw (ZooKeeperException) e;
             } else {
-                throw new ZooKeeperException(e);
+                throw new ZooKeeperException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads data from a node.
+     * 
+     * @param path
+     * @return
+     * @throws ZooKeeperException
+     */
+    public String getData(String path) throws ZooKeeperException {
+        byte[] data = getDataRaw(path);
+        return data != null ? new String(data, UTF8) : null;
+    }
+
+    /**
+     * Reads data from a node with the specified consistency.
+     * 
+     * @param path
+     * @param consistency
+     * @return
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     * @see #getDataRaw(String, Consistency)
+     */
+    public String getData(String path, Consistency consistency) throws ZooKeeperException {
+        byte[] data = getDataRaw(path, consistency);
+        return data != null ? new String(data, UTF8) : null;
+    }
+
+    /**
+     * Reads data from a node as an object of the specified class.
+     * 
+     * @param path
+     * @param clazz
+     * @return
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     * @see Codecs#forClass(Class)
+     * @see #getData(String, ICodec)
+     */
+    public <T> T getData(String path, Class<T> clazz) throws ZooKeeperException {
+        return getData(path, Codecs.forClass(clazz));
+    }
+
+    /**
+     * Reads data from a node, decoded by a codec.
+     * 
+     * <p>
+     * The decoded value is cached along with the locally cached node and
+     * dropped when the node changes, so repeated reads of an unchanged node
+     * decode once. Callers must therefore not modify the returned object.
+     * </p>
+     * 
+     * @param path
+     * @param codec
+     * @return the decoded value, or {@code null} if the node does not exist
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public <T> T getData(String path, ICodec<T> codec) throws ZooKeeperException {
+        byte[] data = getDataRaw(path);
+        try {
+            return _decode(path, data, codec);
+        } catch (Exception e) {
+            throw _toZooKeeperException(e);
+        }
+    }
+
+    /**
+     * Removes an existing node.
+     * 
+     * <p>
+     * Node with children will not be removed.
+     * </p>
+     * 
+     * @param path
+     * @return {@code true} if node has been removed successfully, {@code false}
+     *         otherwise (maybe node is not empty)
+     * @since 0.4.1
+     * @throws ZooKeeperException
+     */
+    public boolean removeNode(String path) throws ZooKeeperException {
+        return removeNode(path, false);
+    }
+
+    /**
+     * Removes an existing node.
+     * 
+     * <p>
+     * If {@code removeChildren} is {@code true}, the subtree is listed level
+     * by level (children of all nodes of a level are fetched concurrently),
+     * then removed bottom-up in batched {@code multi} transactions; cached
+     * data of removed nodes is invalidated once at the end.
+     * </p>
+     * 
+     * @param path
+     * @param removeChildren
+     *            {@code true} to indicate that child nodes should be removed
+     *            too
+     * @return {@code true} if node has been removed successfully, {@code false}
+     *         otherwise (maybe node is not empty)
+     * @since 0.4.1
+     * @throws ZooKeeperException
+     */
+    public boolean removeNode(final String path, boolean removeChildren)
+            throws ZooKeeperException {
+        if (removeChildren) {
+            return _removeTree(path);
+        }
+        return _timed(IZooKeeperMetrics.OP_DELETE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try {
+                    curatorFramework.delete().forPath(path);
+                } catch (KeeperException.NotEmptyException e) {
+                    return Boolean.FALSE;
+                } catch (KeeperException.NoNodeException e) {
+                    _forgetEphemeralNode(path);
+                    return Boolean.TRUE;
+                }
+                _invalidateCache(path);
+                _forgetEphemeralNode(path);
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    /**
+     * Writes raw data to a node.
+     * 
+     * @param path
+     * @param value
+     * @return {@code true} if write successfully, {@code false} otherwise (note
+     *         does not exist, for example)
+     * @throws ZooKeeperException
+     */
+    public boolean setData(String path, byte[] value) throws ZooKeeperException {
+        return setData(path, value, false);
+    }
+
+    /**
+     * Writes raw data to a node.
+     * 
+     * @param path
+     * @param value
+     * @param createNodes
+     *            {@code true} to have nodes to be created if not exist
+     * @return {@code true} if write successfully, {@code false} otherwise (note
+     *         does not exist, for example)
+     * @throws ZooKeeperException
+     */
+    public boolean setData(String path, byte[] value, boolean createNodes)
+            throws ZooKeeperException {
+        return _write(path, value, createNodes);
+    }
+
+    /**
+     * Writes data to a node.
+     * 
+     * @param path
+     * @param value
+     * @return {@code true} if write successfully, {@code false} otherwise (note
+     *         does not exist, for example)
+     * @throws ZooKeeperException
+     */
+    public boolean setData(String path, String value) throws ZooKeeperException {
+        return setData(path, value, false);
+    }
+
+    /**
+     * Writes data to a node.
+     * 
+     * @param path
+     * @param value
+     * @param createNodes
+     *            {@code true} to have nodes to be created if not exist
+     * @return {@code true} if write successfully, {@code false} otherwise (note
+     *         does not exist, for example)
+     * @throws ZooKeeperException
+     */
+    public boolean setData(String path, String value, boolean createNodes)
+            throws ZooKeeperException {
+        return _write(path, value != null ? value.getBytes(UTF8) : null, createNodes);
+    }
+
+    /**
+     * Writes a value, encoded by a codec, to a node.
+     * 
+     * @param path
+     * @param value
+     * @param codec
+     * @param createNodes
+     *            {@code true} to have nodes to be created if not exist
+     * @return {@code true} if write successfully, {@code false} otherwise (note
+     *         does not exist, for example)
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public <T> boolean setData(String path, T value, ICodec<T> codec, boolean createNodes)
+            throws ZooKeeperException {
+        byte[] data;
+        try {
+            data = codec.encode(value);
+        } catch (Exception e) {
+            throw _toZooKeeperException(e);
+        }
+        return _write(path, data, createNodes);
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Translates a failed background operation's result code to a
+     * {@link ZooKeeperException}.
+     * 
+     * @param code
+     * @param path
+     * @return
+     * @since 0.4.2
+     */
+    private static ZooKeeperException _toZooKeeperException(KeeperException.Code code, String path) {
+        if (code == KeeperException.Code.CONNECTIONLOSS) {
+            return new ZooKeeperException.ClientDisconnectedException();
+        }
+        return new ZooKeeperException(KeeperException.create(code, path));
+    }
+
+    /**
+     * Translates an exception to a {@link ZooKeeperException}.
+     * 
+     * @param e
+     * @return
+     * @since 0.4.2
+     */
+    private static ZooKeeperException _toZooKeeperException(Throwable e) {
+        if (e instanceof ZooKeeperException) {
+            return (ZooKeeperException) e;
+        }
+        if (e instanceof KeeperException.ConnectionLossException) {
+            return new ZooKeeperException.ClientDisconnectedException();
+        }
+        return new ZooKeeperException(e);
+    }
+
+    /**
+     * Records latency of an operation.
+     * 
+     * @param operation
+     * @param startTime
+     *            value of {@link System#nanoTime()} when the operation started
+     * @since 0.4.2
+     */
+    private void _recordLatency(String operation, long startTime) {
+        IZooKeeperMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordLatency(operation, System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Runs a blocking operation, recording its latency and failure (if any).
+     * 
+     * @param operation
+     *            operation name, to record metrics against (see
+     *            {@link IZooKeeperMetrics})
+     * @param callable
+     *            the operation; exceptions it throws are translated to
+     *            {@link ZooKeeperException}
+     * @return
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private <T> T _timed(String operation, Callable<T> callable) throws ZooKeeperException {
+        long startTime = System.nanoTime();
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            ZooKeeperException ze = _toZooKeeperException(e);
+            _recordError(operation, ze);
+            throw ze;
+        } finally {
+            _recordLatency(operation, startTime);
+        }
+    }
+
+    /**
+     * Records a failed operation.
+     * 
+     * @param operation
+     * @param e
+     * @since 0.4.2
+     */
+    private void _recordError(String operation, ZooKeeperException e) {
+        IZooKeeperMetrics metrics = this.metrics;
+        if (metrics != null) {
+            KeeperException.Code code = KeeperException.Code.SYSTEMERROR;
+            if (e instanceof ZooKeeperException.ClientDisconnectedException) {
+                code = KeeperException.Code.CONNECTIONLOSS;
+            } else if (e.getCause() instanceof KeeperException) {
+                code = ((KeeperException) e.getCause()).code();
+            }
+            metrics.recordError(operation, code);
+        }
+    }
+
+    /**
+     * Records a cache hit ({@code true}) or miss ({@code false}).
+     * 
+     * @param cache
+     * @param hit
+     * @since 0.4.2
+     */
+    private void _recordCacheAccess(String cache, boolean hit) {
+        IZooKeeperMetrics metrics = this.metrics;
+        if (metrics != null) {
+            if (hit) {
+                metrics.recordCacheHit(cache);
+            } else {
+                metrics.recordCacheMiss(cache);
+            }
+        }
+    }
+
+    /**
+     * Completes {@code target} with the outcome of {@code source}.
+     * 
+     * @param source
+     * @param target
+     * @since 0.4.2
+     */
+    private static <T> void _propagate(ListenableFuture<T> source, final SettableFuture<T> target) {
+        Futures.addCallback(source, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                target.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                target.setException(t);
+            }
+        });
+    }
+
+    /**
+     * Waits for an asynchronous operation to complete.
+     * 
+     * @param future
+     * @return
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private <T> T _await(Future<T> future) throws ZooKeeperException {
+        if (!future.isDone() && _isEventThread()) {
+            // would never complete
+            throw new ZooKeeperException("Blocking call not supported on ZooKeeper's event thread");
+        }
+        try {
+            long timeout = operationTimeout;
+            return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            throw new ZooKeeperException.OperationTimeoutException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZooKeeperException(e);
+        } catch (ExecutionException e) {
+            throw _toZooKeeperException(e.getCause());
+        }
+    }
+
+    /**
+     * {@link BackgroundCallback} that completes a {@link SettableFuture} with
+     * the result of a background operation.
+     * 
+     * @since 0.4.2
+     */
+    private abstract class AsyncCallback<T> implements BackgroundCallback {
+        protected final SettableFuture<T> future = SettableFuture.create();
+        private final String operation;
+        private final long startTime = System.nanoTime();
+
+        /**
+         * @param operation
+         *            operation name, to record metrics against (see
+         *            {@link IZooKeeperMetrics})
+         */
+        public AsyncCallback(String operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Converts the result of the background operation.
+         * 
+         * @param code
+         * @param event
+         * @return
+         * @throws Exception
+         */
+        protected abstract T onResult(KeeperException.Code code, CuratorEvent event)
+                throws Exception;
+
+        /**
+         * Fails the operation.
+         * 
+         * @param e
+         */
+        public void fail(Throwable e) {
+            _recordLatency(operation, startTime);
+            ZooKeeperException ze = _toZooKeeperException(e);
+            _recordError(operation, ze);
+            onFailure(ze);
+        }
+
+        /**
+         * Called when the operation failed.
+         * 
+         * @param e
+         */
+        protected void onFailure(ZooKeeperException e) {
+            future.setException(e);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                // successful results are delivered by the event thread only
+                eventThreads.add(Thread.currentThread());
+            }
+            T result;
+            try {
+                result = onResult(KeeperException.Code.get(event.getResultCode()), event);
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            _recordLatency(operation, startTime);
+            future.set(result);
+        }
+    }
+
+    /**
+     * Creates a new node, with initial data, in background.
+     * 
+     * @param path
+     * @param data
+     * @param createMode
+     * @return
+     * @since 0.4.2
+     */
+    private ListenableFuture<Boolean> _createAsync(final String path, byte[] data,
+            final CreateMode createMode) {
+        final byte[] value = data != null ? data : ArrayUtils.EMPTY_BYTE_ARRAY;
+        AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>(IZooKeeperMetrics.OP_CREATE) {
+            @Override
+            protected Boolean onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    _invalidateCache(path);
+                    if (createMode.isEphemeral()) {
+                        ephemeralNodes.put(path, value);
+                    }
+                    return Boolean.TRUE;
+                case NODEEXISTS:
+                    return Boolean.FALSE;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+        };
+        try {
+            curatorFramework.create().creatingParentsIfNeeded().withMode(createMode)
+                    .inBackground(callback).forPath(path, _compress(value));
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
+    }
+
+    /**
+     * Writes raw data to a node in background.
+     * 
+     * <p>
+     * If {@code createNodes} is {@code true} and the node does not exist, it
+     * is created (with parents, as {@link CreateMode#PERSISTENT}) and the
+     * write is retried once if the node has been created by someone else in
+     * the meantime.
+     * </p>
+     * 
+     * @param path
+     * @param data
+     * @param createNodes
+     * @return
+     * @since 0.4.2
+     */
+    private ListenableFuture<Boolean> _writeAsync(final String path, final byte[] data,
+            final boolean createNodes) {
+        final SettableFuture<Boolean> result = SettableFuture.create();
+        final byte[] payload = _compress(data);
+        final AsyncCallback<Boolean> createCallback = new AsyncCallback<Boolean>(
+                IZooKeeperMetrics.OP_CREATE) {
+            @Override
+            protected Boolean onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    _invalidateCache(path, data);
+                    result.set(Boolean.TRUE);
+                    break;
+                case NODEEXISTS:
+                    // node has just been created by someone else
+                    _propagate(_writeAsync(path, data, false), result);
+                    break;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onFailure(ZooKeeperException e) {
+                result.setException(e);
+            }
+        };
+        AsyncCallback<Boolean> setDataCallback = new AsyncCallback<Boolean>(
+                IZooKeeperMetrics.OP_SET_DATA) {
+            @Override
+            protected Boolean onResult(KeeperException.Code code, CuratorEvent event)
+                    throws Exception {
+                switch (code) {
+                case OK:
+                    _invalidateCache(path, data, event.getStat());
+                    result.set(Boolean.TRUE);
+                    break;
+                case NONODE:
+                    if (createNodes) {
+                        curatorFramework.create().creatingParentsIfNeeded()
+                                .withMode(CreateMode.PERSISTENT).inBackground(createCallback)
+                                .forPath(path,
+                                        payload != null ? payload : ArrayUtils.EMPTY_BYTE_ARRAY);
+                    } else {
+                        result.set(Boolean.FALSE);
+                    }
+                    break;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onFailure(ZooKeeperException e) {
+                result.setException(e);
+            }
+        };
+        try {
+            curatorFramework.setData().inBackground(setDataCallback).forPath(path, payload);
+        } catch (Exception e) {
+            setDataCallback.fail(e);
+        }
+        return result;
+    }
+
+    /**
+     * Creates an empty ephemeral node asynchronously.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #createEphemeralNode(String)
+     */
+    public ListenableFuture<Boolean> createEphemeralNodeAsync(String path) {
+        return _createAsync(path, null, CreateMode.EPHEMERAL);
+    }
+
+    /**
+     * Creates an ephemeral node, with initial values, asynchronously.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.2
+     * @see #createEphemeralNode(String, byte[])
+     */
+    public ListenableFuture<Boolean> createEphemeralNodeAsync(String path, byte[] value) {
+        return _createAsync(path, value, CreateMode.EPHEMERAL);
+    }
+
+    /**
+     * Creates an ephemeral node, with initial values, asynchronously.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.2
+     * @see #createEphemeralNode(String, String)
+     */
+    public ListenableFuture<Boolean> createEphemeralNodeAsync(String path, String value) {
+        return _createAsync(path, value != null ? value.getBytes(UTF8) : null,
+                CreateMode.EPHEMERAL);
+    }
+
+    /**
+     * Creates an empty node asynchronously.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #createNode(String)
+     */
+    public ListenableFuture<Boolean> createNodeAsync(String path) {
+        return _createAsync(path, null, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Creates a node, with initial values, asynchronously.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.2
+     * @see #createNode(String, byte[])
+     */
+    public ListenableFuture<Boolean> createNodeAsync(String path, byte[] value) {
+        return _createAsync(path, value, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Creates a node, with initial values, asynchronously.
+     * 
+     * <p>
+     * Note: nodes are created recursively (parent nodes are created if needed).
+     * </p>
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.2
+     * @see #createNode(String, String)
+     */
+    public ListenableFuture<Boolean> createNodeAsync(String path, String value) {
+        return _createAsync(path, value != null ? value.getBytes(UTF8) : null,
+                CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Checks if a path exists, asynchronously.
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #nodeExists(String)
+     */
+    public ListenableFuture<Boolean> nodeExistsAsync(final String path) {
+        Mirror mirror = _mirrorFor(path);
+        if (mirror != null && mirror.treeCache.getCurrentData(path) != null) {
+            return Futures.immediateFuture(Boolean.TRUE);
+        }
+        if (_isMissingNode(path)) {
+            return Futures.immediateFuture(Boolean.FALSE);
+        }
+        AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>(IZooKeeperMetrics.OP_EXISTS) {
+            @Override
+            protected Boolean onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    return Boolean.valueOf(event.getStat() != null);
+                case NONODE:
+                    return Boolean.FALSE;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+        };
+        try {
+            _reader(path).checkExists().inBackground(callback).forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
+    }
+
+    /**
+     * Gets children of a node, asynchronously.
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #getChildren(String)
+     */
+    public ListenableFuture<String[]> getChildrenAsync(final String path) {
+        Mirror mirror = _mirrorFor(path);
+        String[] mirrorChildren = mirror != null ? _mirrorChildren(mirror, path) : null;
+        if (mirrorChildren != null || (mirror != null && _mirrorMissing(mirror, path))) {
+            return Futures.immediateFuture(mirrorChildren);
+        }
+        return _getChildrenAsync(_reader(path), path);
+    }
+
+    /**
+     * Fetches children of a node from ZooKeeper in background.
+     * 
+     * @param framework
+     *            the session to read from
+     * @param path
+     * @return
+     * @since 0.4.2
+     */
+    private ListenableFuture<String[]> _getChildrenAsync(CuratorFramework framework,
+            final String path) {
+        AsyncCallback<String[]> callback = new AsyncCallback<String[]>(
+                IZooKeeperMetrics.OP_GET_CHILDREN) {
+            @Override
+            protected String[] onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    List<String> result = event.getChildren();
+                    return result != null ? result.toArray(ArrayUtils.EMPTY_STRING_ARRAY) : null;
+                case NONODE:
+                    return null;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+        };
+        try {
+            framework.getChildren().inBackground(callback).forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
+    }
+
+    /**
+     * Reads raw data from a node, asynchronously.
+     * 
+     * <p>
+     * Cache is consulted first; on cache miss data is fetched from ZooKeeper
+     * in background and put to cache. Concurrent cache misses on the same path
+     * share one request.
+     * </p>
+     * 
+     * <p>
+     * Note: the returned future is completed by Curator's event thread;
+     * listeners attached to it should not block.
+     * </p>
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #getDataRaw(String)
+     */
+    public ListenableFuture<byte[]> getDataRawAsync(final String path) {
+        Mirror mirror = _mirrorFor(path);
+        ChildData mirrorNode = mirror != null ? _mirrorNode(mirror, path) : null;
+        if (mirrorNode != null) {
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+            return Futures.immediateFuture(mirrorNode.getData());
+        }
+        CachedNode cachedNode = _getFromLocalCache(path);
+        if (cachedNode != null) {
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+            return Futures.immediateFuture(cachedNode.data);
+        }
+        ChildData staleNode = staleNodes.get(path);
+        if (staleNode != null) {
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+            return Futures.immediateFuture(staleNode.getData());
+        }
+        try {
+            byte[] data = getFromCache(cacheNameRaw, path, byte[].class);
+            if (data != null || _isMissingNode(path)) {
+                _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, true);
+                return Futures.immediateFuture(data);
+            }
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(_toZooKeeperException(e));
+        }
+        _recordCacheAccess(IZooKeeperMetrics.CACHE_RAW, false);
+        return Futures.transform(_loadAsync(path), new Function<ChildData, byte[]>() {
+            @Override
+            public byte[] apply(ChildData node) {
+                return node != null ? node.getData() : null;
+            }
+        });
+    }
+
+    /**
+     * Reads raw data from a node with the specified consistency,
+     * asynchronously. For {@link Consistency#LINEARIZABLE} reads, the sync
+     * and the read are both issued in background.
+     * 
+     * @param path
+     * @param consistency
+     * @return
+     * @since 0.4.2
+     * @see #getDataRaw(String, Consistency)
+     */
+    public ListenableFuture<byte[]> getDataRawAsync(String path, Consistency consistency) {
+        if (consistency != Consistency.LINEARIZABLE) {
+            return getDataRawAsync(path);
+        }
+        return Futures.transform(_syncReadAsync(path), new Function<ChildData, byte[]>() {
+            @Override
+            public byte[] apply(ChildData node) {
+                return node != null ? node.getData() : null;
+            }
+        });
+    }
+
+    /**
+     * Checks if the current thread is ZooKeeper's event thread, which runs
+     * watchers and background callbacks, and completes the futures of
+     * background operations.
+     * 
+     * <p>
+     * Blocking calls made on it (e.g. from a watcher or a callback) must not
+     * wait for a future, which would never complete.
+     * </p>
+     * 
+     * <p>
+     * Event threads are known by identity, captured by this client's watchers
+     * and callbacks, and by {@link #_captureEventThread(CuratorFramework)}
+     * as soon as a session is (re-)connected.
+     * </p>
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    private boolean _isEventThread() {
+        return eventThreads.contains(Thread.currentThread());
+    }
+
+    /**
+     * Captures the event thread of a session with a background
+     * {@code exists}, so that blocking calls from callbacks and watchers
+     * registered by the application are detected too.
+     * 
+     * @param session
+     * @since 0.4.2
+     */
+    private void _captureEventThread(CuratorFramework session) {
+        try {
+            session.checkExists().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                        eventThreads.add(Thread.currentThread());
+                    }
+                }
+            }).forPath("/");
+        } catch (Exception e) {
+            LOGGER.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Fetches a node from ZooKeeper and puts it to cache, blocking.
+     * 
+     * @param path
+     * @return the node, or {@code null} if it does not exist
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private ChildData _load(String path) throws ZooKeeperException {
+        return _isEventThread() ? _loadSync(path) : _await(_loadAsync(path));
+    }
+
+    /**
+     * Fetches a node from ZooKeeper with a synchronous read and puts it to
+     * cache; used on ZooKeeper's event thread.
+     * 
+     * @param path
+     * @return the node, or {@code null} if it does not exist
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private ChildData _loadSync(final String path) throws ZooKeeperException {
+        final boolean watch = watchedPaths.add(path);
+        try {
+            return _timed(IZooKeeperMetrics.OP_GET_DATA, new Callable<ChildData>() {
+                @Override
+                public ChildData call() throws Exception {
+                    Stat stat = new Stat();
+                    try {
+                        byte[] data = watch ? _reader(path).getData().storingStatIn(stat)
+                                .usingWatcher(nodeWatcher).forPath(path) : _reader(path)
+                                .getData().storingStatIn(stat).forPath(path);
+                        return _loaded(path, data, stat);
+                    } catch (KeeperException.NoNodeException e) {
+                        if (watch) {
+                            watchedPaths.remove(path);
+                        }
+                        _watchMissingNode(path);
+                        return null;
+                    }
+                }
+            });
+        } catch (ZooKeeperException e) {
+            if (watch) {
+                watchedPaths.remove(path);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Puts a node fetched from ZooKeeper to cache.
+     * 
+     * @param path
+     * @param data
+     *            data as read from ZooKeeper (i.e. maybe compressed)
+     * @param stat
+     * @return the node
+     * @since 0.4.2
+     */
+    private ChildData _loaded(String path, byte[] data, Stat stat) {
+        data = _decompress(path, data, stat);
+        CachedNode cachedNode = _putToLocalCache(path, data, stat);
+        if (cachedNode != null) {
+            // same (or newer) content; share the array so that its decoded
+            // value is reused
+            data = cachedNode.data;
+            stat = cachedNode.stat;
+        }
+        putToCache(cacheNameRaw, path, data);
+        return new ChildData(path, stat, data);
+    }
+
+    /**
+     * Fetches a node from ZooKeeper in background and puts it to cache.
+     * Concurrent loads of the same path share one request.
+     * 
+     * @param path
+     * @return the node, or {@code null} if it does not exist
+     * @since 0.4.2
+     */
+    private ListenableFuture<ChildData> _loadAsync(final String path) {
+        final AsyncCallback<ChildData> callback = new AsyncCallback<ChildData>(
+                IZooKeeperMetrics.OP_GET_DATA) {
+            @Override
+            protected ChildData onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    return _loaded(path, event.getData(), event.getStat());
+                case NONODE:
+                    _watchMissingNode(path);
+                    return null;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+        };
+        ListenableFuture<ChildData> pending = pendingReads.putIfAbsent(path, callback.future);
+        if (pending != null) {
+            return pending;
+        }
+        callback.future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                pendingReads.remove(path, callback.future);
+            }
+        }, MoreExecutors.directExecutor());
+        _readRawAsync(path, callback);
+        return callback.future;
+    }
+
+    /**
+     * Reads data from a node, asynchronously.
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #getData(String)
+     */
+    public ListenableFuture<String> getDataAsync(String path) {
+        return Futures.transform(getDataRawAsync(path), new Function<byte[], String>() {
+            @Override
+            public String apply(byte[] data) {
+                return data != null ? new String(data, UTF8) : null;
+            }
+        });
+    }
+
+    /**
+     * Reads data from a node as an object of the specified class,
+     * asynchronously.
+     * 
+     * @param path
+     * @param clazz
+     * @return
+     * @since 0.4.2
+     * @see #getData(String, Class)
+     */
+    public <T> ListenableFuture<T> getDataAsync(String path, Class<T> clazz) {
+        return getDataAsync(path, Codecs.forClass(clazz));
+    }
+
+    /**
+     * Reads data from a node, decoded by a codec, asynchronously.
+     * 
+     * @param path
+     * @param codec
+     * @return
+     * @since 0.4.2
+     * @see #getData(String, ICodec)
+     */
+    public <T> ListenableFuture<T> getDataAsync(final String path, final ICodec<T> codec) {
+        return Futures.transform(getDataRawAsync(path), new Function<byte[], T>() {
+            @Override
+            public T apply(byte[] data) {
+                try {
+                    return _decode(path, data, codec);
+                } catch (Exception e) {
+                    throw _toZooKeeperException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads data from a node as a JSON object, asynchronously.
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #getDataJson(String)
+     */
+    public ListenableFuture<Object> getDataJsonAsync(final String path) {
+        try {
+            Object data = getFromCache(cacheNameJson, path);
+            _recordCacheAccess(IZooKeeperMetrics.CACHE_JSON, data != null);
+            if (data != null) {
+                return Futures.immediateFuture(data);
+            }
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(_toZooKeeperException(e));
+        }
+        return Futures.transform(getDataAsync(path, Codecs.JSON), new Function<Object, Object>() {
+            @Override
+            public Object apply(Object data) {
+                putToCache(cacheNameJson, path, data);
+                return data;
+            }
+        });
+    }
+
+    /**
+     * Removes an existing node, asynchronously.
+     * 
+     * <p>
+     * Node with children will not be removed.
+     * </p>
+     * 
+     * @param path
+     * @return
+     * @since 0.4.2
+     * @see #removeNode(String)
+     */
+    public ListenableFuture<Boolean> removeNodeAsync(String path) {
+        return removeNodeAsync(path, false);
+    }
+
+    /**
+     * Removes an existing node, asynchronously.
+     * 
+     * <p>
+     * If {@code removeChildren} is {@code true}, the subtree is listed level
+     * by level like {@link #removeNode(String, boolean)} does, then removed
+     * bottom-up, each level by concurrent deletes; cached data of removed
+     * nodes is invalidated once at the end.
+     * </p>
+     * 
+     * @param path
+     * @param removeChildren
+     *            {@code true} to indicate that child nodes should be removed
+     *            too
+     * @return
+     * @since 0.4.2
+     * @see #removeNode(String, boolean)
+     */
+    public ListenableFuture<Boolean> removeNodeAsync(final String path,
+            final boolean removeChildren) {
+        if (removeChildren) {
+            return _removeTreeAsync(path);
+        }
+        AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>(IZooKeeperMetrics.OP_DELETE) {
+            @Override
+            protected Boolean onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                case NONODE:
+                    _invalidateCache(path);
+                    _forgetEphemeralNode(path);
+                    return Boolean.TRUE;
+                case NOTEMPTY:
+                    return Boolean.FALSE;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+        };
+        try {
+            curatorFramework.delete().inBackground(callback).forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
+    }
+
+    /**
+     * Writes raw data to a node, asynchronously.
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.2
+     * @see #setData(String, byte[])
+     */
+    public ListenableFuture<Boolean> setDataAsync(String path, byte[] value) {
+        return setDataAsync(path, value, false);
+    }
+
+    /**
+     * Writes raw data to a node, asynchronously.
+     * 
+     * @param path
+     * @param value
+     * @param createNodes
+     *            {@code true} to have nodes to be created if not exist
+     * @return
+     * @since 0.4.2
+     * @see #setData(String, byte[], boolean)
+     */
+    public ListenableFuture<Boolean> setDataAsync(String path, byte[] value, boolean createNodes) {
+        return _writeAsync(path, value, createNodes);
+    }
+
+    /**
+     * Writes data to a node, asynchronously.
+     * 
+     * @param path
+     * @param value
+     * @return
+     * @since 0.4.2
+     * @see #setData(String, String)
+     */
+    public ListenableFuture<Boolean> setDataAsync(String path, String value) {
+        return setDataAsync(path, value, false);
+    }
+
+    /**
+     * Writes data to a node, asynchronously.
+     * 
+     * @param path
+     * @param value
+     * @param createNodes
+     *            {@code true} to have nodes to be created if not exist
+     * @return
+     * @since 0.4.2
+     * @see #setData(String, String, boolean)
+     */
+    public ListenableFuture<Boolean> setDataAsync(String path, String value, boolean createNodes) {
+        return _writeAsync(path, value != null ? value.getBytes(UTF8) : null, createNodes);
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Starts a new transaction.
+     * 
+     * @return
+     * @since 0.4.2
+     */
+    public ZooKeeperTransaction transaction() {
+        return new ZooKeeperTransaction(this);
+    }
+
+    /**
+     * Commits a transaction in one round trip.
+     * 
+     * @param transaction
+     * @return
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    List<CuratorTransactionResult> commit(ZooKeeperTransaction transaction)
+            throws ZooKeeperException {
+        final List<ZooKeeperTransaction.Op> ops = transaction.getOps();
+        if (ops.size() == 0) {
+            return new ArrayList<CuratorTransactionResult>();
+        }
+        return _timed(IZooKeeperMetrics.OP_MULTI, new Callable<List<CuratorTransactionResult>>() {
+            @Override
+            public List<CuratorTransactionResult> call() throws Exception {
+                Set<String> touchedPaths = new LinkedHashSet<String>();
+                CuratorTransaction curatorTransaction = curatorFramework.inTransaction();
+                for (ZooKeeperTransaction.Op op : ops) {
+                    switch (op.type) {
+                    case CREATE:
+                        curatorTransaction = curatorTransaction.create().withMode(op.createMode)
+                                .forPath(op.path, _compress(op.data)).and();
+                        break;
+                    case SET_DATA:
+                        curatorTransaction = curatorTransaction.setData().withVersion(op.version)
+                                .forPath(op.path, _compress(op.data)).and();
+                        break;
+                    case DELETE:
+                        curatorTransaction = curatorTransaction.delete().withVersion(op.version)
+                                .forPath(op.path).and();
+                        break;
+                    case CHECK:
+                        curatorTransaction = curatorTransaction.check().withVersion(op.version)
+                                .forPath(op.path).and();
+                        break;
+                    }
+                    if (op.type != ZooKeeperTransaction.OpType.CHECK) {
+                        touchedPaths.add(op.path);
+                    }
+                }
+                List<CuratorTransactionResult> result;
+                try {
+                    result = new ArrayList<CuratorTransactionResult>(
+                            ((CuratorTransactionFinal) curatorTransaction).commit());
+                } catch (KeeperException.ConnectionLossException e) {
+                    throw e;
+                } catch (KeeperException e) {
+                    throw new ZooKeeperException.TransactionFailedException(_failedOpIndex(e), e);
+                }
+                for (int i = 0, n = ops.size(); i < n; i++) {
+                    ZooKeeperTransaction.Op op = ops.get(i);
+                    if (op.type == ZooKeeperTransaction.OpType.CREATE) {
+                        // sequential nodes are created under a generated name
+                        touchedPaths.add(result.get(i).getResultPath());
+                    }
+                }
+                for (String path : touchedPaths) {
+                    _invalidateCache(path);
+                }
+                for (ZooKeeperTransaction.Op op : ops) {
+                    if (op.type == ZooKeeperTransaction.OpType.CREATE
+                            && op.createMode.isEphemeral() && !op.createMode.isSequential()) {
+                        // sequential nodes are not re-created: a new node would get a new
+                        // sequence number, which breaks recipes such as locks
+                        ephemeralNodes.put(op.path, op.data != null ? op.data
+                                : ArrayUtils.EMPTY_BYTE_ARRAY);
+                    } else if (op.type == ZooKeeperTransaction.OpType.DELETE) {
+                        _forgetEphemeralNode(op.path);
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Finds the operation that failed a {@code multi} transaction.
+     * 
+     * @param e
+     * @return index of the failed operation, or {@code -1} if unknown
+     * @since 0.4.2
+     */
+    private static int _failedOpIndex(KeeperException e) {
+        List<OpResult> results = e.getResults();
+        for (int i = 0, n = results != null ? results.size() : 0; i < n; i++) {
+            OpResult opResult = results.get(i);
+            if (opResult instanceof OpResult.ErrorResult) {
+                int err = ((OpResult.ErrorResult) opResult).getErr();
+                if (err != KeeperException.Code.OK.intValue()
+                        && err != KeeperException.Code.RUNTIMEINCONSISTENCY.intValue()) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes raw data to a node, only if node's current version matches.
+     * 
+     * @param path
+     * @param value
+     * @param expectedVersion
+     *            expected node version (see {@link Stat#getVersion()})
+     * @return {@code true} if write successfully, {@code false} otherwise (node
+     *         does not exist or version mismatched)
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public boolean setDataIfVersion(final String path, final byte[] value,
+            final int expectedVersion) throws ZooKeeperException {
+        return _timed(IZooKeeperMetrics.OP_SET_DATA, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try {
+                    Stat stat = curatorFramework.setData().withVersion(expectedVersion)
+                            .forPath(path, _compress(value));
+                    _invalidateCache(path, value, stat);
+                    return Boolean.TRUE;
+                } catch (KeeperException.BadVersionException e) {
+                    // cached version is stale
+                    _invalidateCache(path);
+                    return Boolean.FALSE;
+                } catch (KeeperException.NoNodeException e) {
+                    return Boolean.FALSE;
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes data to a node, only if node's current version matches.
+     * 
+     * @param path
+     * @param value
+     * @param expectedVersion
+     *            expected node version (see {@link Stat#getVersion()})
+     * @return {@code true} if write successfully, {@code false} otherwise (node
+     *         does not exist or version mismatched)
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public boolean setDataIfVersion(String path, String value, int expectedVersion)
+            throws ZooKeeperException {
+        return setDataIfVersion(path, value != null ? value.getBytes(UTF8) : null,
+                expectedVersion);
+    }
+
+    /**
+     * Default maximum number of attempts of {@link #update(String, Function)}
+     * (10).
+     * 
+     * @since 0.4.2
+     */
+    public final static int DEFAULT_UPDATE_MAX_ATTEMPTS = 10;
+
+    /**
+     * Atomically updates a node's data (read-modify-write), retrying on
+     * concurrent modification.
+     * 
+     * @param path
+     * @param updateFunc
+     *            computes the new data from the current data; returns
+     *            {@code null} to leave the node unchanged
+     * @return node's data after update, or {@code null} if the node does not
+     *         exist
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public byte[] update(String path, Function<byte[], byte[]> updateFunc)
+            throws ZooKeeperException {
+        return update(path, updateFunc, DEFAULT_UPDATE_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Atomically updates a node's data (read-modify-write), retrying on
+     * concurrent modification.
+     * 
+     * @param path
+     * @param updateFunc
+     *            computes the new data from the current data; returns
+     *            {@code null} to leave the node unchanged
+     * @param maxAttempts
+     * @return node's data after update, or {@code null} if the node does not
+     *         exist
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     *             if the node could not be updated after {@code maxAttempts}
+     *             attempts
+     */
+    public byte[] update(String path, Function<byte[], byte[]> updateFunc, int maxAttempts)
+            throws ZooKeeperException {
+        // first attempt may use cached data, subsequent ones read from server,
+        // synced first: the session serving reads may lag the one writing
+        ChildData node = getDataWithStat(path);
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            if (node == null) {
+                return null;
+            }
+            byte[] newData = updateFunc.apply(node.getData());
+            if (newData == null) {
+                return node.getData();
+            }
+            if (setDataIfVersion(path, newData, node.getStat().getVersion())) {
+                return newData;
+            }
+            node = _syncRead(path);
+        }
+        throw new ZooKeeperException("Cannot update node [" + path + "] after " + maxAttempts
+                + " attempt(s)");
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Maximum number of attempts of {@link #getLargeData(String)} to read a
+     * consistent set of chunks while the value is being replaced.
+     * 
+     * @since 0.4.2
+     */
+    private final static int LARGE_DATA_READ_MAX_ATTEMPTS = 3;
+
+    /**
+     * Key of reassembled large values in {@link CachedNode}.
+     * 
+     * @since 0.4.2
+     */
+    private final static Object LARGE_DATA_KEY = new Object();
+
+    /**
+     * Writes a value that may exceed ZooKeeper's node size limit.
+     * 
+     * <p>
+     * The value is (optionally compressed, see
+     * {@link #setCompressionThreshold(int)}) split into chunks of
+     * {@link #getLargeDataChunkSize()} bytes, written concurrently as a new
+     * generation of child nodes of {@code path}. The manifest, stored as
+     * {@code path}'s data, is then switched to the new generation by one
+     * compare-and-set write, so readers see either the old or the new value,
+     * never a mix. Chunks of the replaced generation are removed afterwards.
+     * </p>
+     * 
+     * <p>
+     * Notes:
+     * </p>
+     * <ul>
+     * <li>Node {@code path} (and its parents) is created if not exist.</li>
+     * <li>Chunk nodes are children of {@code path}; use
+     * {@link #removeNode(String, boolean)} with {@code removeChildren=true}
+     * to remove a large value.</li>
+     * <li>Chunks written by a writer that died before switching the manifest
+     * are left behind.</li>
+     * </ul>
+     * 
+     * @param path
+     * @param value
+     * @return {@code true} if write successfully, {@code false} if the node
+     *         has been removed concurrently
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     * @see #getLargeData(String)
+     */
+    public boolean setLargeData(String path, byte[] value) throws ZooKeeperException {
+        byte[] payload = _compress(value != null ? value : ArrayUtils.EMPTY_BYTE_ARRAY);
+        int chunkSize = largeDataChunkSize;
+        int chunkCount = Math.max(1, (payload.length + chunkSize - 1) / chunkSize);
+        LargeDataManifest manifest = new LargeDataManifest(
+                ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, chunkCount,
+                payload.length);
+
+        // write chunks of the new generation, pipelined
+        List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+        for (int i = 0; i < chunkCount; i++) {
+            final String chunkPath = manifest.chunkPath(path, i);
+            AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>(
+                    IZooKeeperMetrics.OP_CREATE) {
+                @Override
+                protected Boolean onResult(KeeperException.Code code, CuratorEvent event) {
+                    if (code != KeeperException.Code.OK) {
+                        throw _toZooKeeperException(code, chunkPath);
+                    }
+                    return Boolean.TRUE;
+                }
+            };
+            byte[] chunk = Arrays.copyOfRange(payload, i * chunkSize,
+                    Math.min(payload.length, (i + 1) * chunkSize));
+            try {
+                curatorFramework.create().creatingParentsIfNeeded().inBackground(callback)
+                        .forPath(chunkPath, chunk);
+            } catch (Exception e) {
+                callback.fail(e);
+            }
+            futures.add(callback.future);
+        }
+        try {
+            _await(Futures.allAsList(futures));
+        } catch (ZooKeeperException e) {
+            _removeChunksAsync(path, manifest);
+            throw e;
+        }
+        // path may have just been created as the chunks' parent: forget it
+        // was missing
+        _invalidateCache(path);
+
+        // switch the manifest to the new generation
+        final byte[] manifestData = manifest.toBytes();
+        final byte[][] replaced = new byte[1][];
+        byte[] result;
+        try {
+            result = update(path, new Function<byte[], byte[]>() {
+                @Override
+                public byte[] apply(byte[] currentData) {
+                    replaced[0] = currentData;
+                    return manifestData;
+                }
+            });
+        } catch (ZooKeeperException e) {
+            _removeChunksAsync(path, manifest);
+            throw e;
+        }
+        if (result == null) {
+            _removeChunksAsync(path, manifest);
+            return false;
+        }
+        LargeDataManifest replacedManifest = LargeDataManifest.parse(replaced[0]);
+        if (replacedManifest != null) {
+            _removeChunksAsync(path, replacedManifest);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a value written by {@link #setLargeData(String, byte[])}.
+     * 
+     * <p>
+     * Chunks are fetched concurrently (pipelined on the client's connection).
+     * The reassembled value is cached along with the locally cached manifest,
+     * so it is reassembled once per version. Callers must therefore not
+     * modify the returned array.
+     * </p>
+     * 
+     * @param path
+     * @return the value, or {@code null} if the node does not exist; data of
+     *         a node that does not hold a large value is returned as-is
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     */
+    public byte[] getLargeData(String path) throws ZooKeeperException {
+        ChildData node = getDataWithStat(path);
+        for (int attempt = 0; node != null; attempt++) {
+            LargeDataManifest manifest = LargeDataManifest.parse(node.getData());
+            if (manifest == null) {
+                return node.getData();
+            }
+            CachedNode cachedNode = _getFromLocalCache(path);
+            if (cachedNode != null && cachedNode.data != node.getData()) {
+                cachedNode = null;
+            }
+            byte[] value = cachedNode != null ? (byte[]) cachedNode.getDecoded(LARGE_DATA_KEY)
+                    : null;
+            if (value == null) {
+                value = _readChunks(path, manifest);
+            }
+            if (value != null) {
+                if (cachedNode != null) {
+                    value = (byte[]) cachedNode.putDecoded(LARGE_DATA_KEY, value);
+                }
+                return value;
+            }
+            if (attempt + 1 >= LARGE_DATA_READ_MAX_ATTEMPTS) {
+                throw new ZooKeeperException("Cannot read chunks of node [" + path + "] after "
+                        + LARGE_DATA_READ_MAX_ATTEMPTS + " attempt(s)");
+            }
+            // value has been replaced in the meantime: re-read the manifest
+            node = _load(path);
+        }
+        return null;
+    }
+
+    /**
+     * Fetches and reassembles chunks of a large value.
+     * 
+     * @param path
+     * @param manifest
+     * @return the value, or {@code null} if chunks are missing (i.e. the value
+     *         has been replaced)
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private byte[] _readChunks(String path, LargeDataManifest manifest)
+            throws ZooKeeperException {
+        if (_isEventThread()) {
+            return _readChunksSync(path, manifest);
+        }
+        List<ListenableFuture<byte[]>> futures = new ArrayList<ListenableFuture<byte[]>>();
+        for (int i = 0; i < manifest.chunkCount; i++) {
+            final String chunkPath = manifest.chunkPath(path, i);
+            AsyncCallback<byte[]> callback = new AsyncCallback<byte[]>(
+                    IZooKeeperMetrics.OP_GET_DATA) {
+                @Override
+                protected byte[] onResult(KeeperException.Code code, CuratorEvent event) {
+                    switch (code) {
+                    case OK:
+                        return event.getData() != null ? event.getData()
+                                : ArrayUtils.EMPTY_BYTE_ARRAY;
+                    case NONODE:
+                        return null;
+                    default:
+                        throw _toZooKeeperException(code, chunkPath);
+                    }
+                }
+            };
+            try {
+                // same session as the manifest, which is written after chunks
+                _reader(path).getData().inBackground(callback).forPath(chunkPath);
+            } catch (Exception e) {
+                callback.fail(e);
+            }
+            futures.add(callback.future);
+        }
+        byte[] payload = new byte[manifest.length];
+        int offset = 0;
+        for (byte[] chunk : _await(Futures.allAsList(futures))) {
+            if (chunk == null || offset + chunk.length > payload.length) {
+                return null;
+            }
+            System.arraycopy(chunk, 0, payload, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return offset == payload.length ? Compression.decompress(payload) : null;
+    }
+
+    /**
+     * Fetches and reassembles chunks of a large value, one by one with
+     * synchronous reads; used on ZooKeeper's event thread.
+     * 
+     * @param path
+     * @param manifest
+     * @return the value, or {@code null} if chunks are missing
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private byte[] _readChunksSync(final String path, LargeDataManifest manifest)
+            throws ZooKeeperException {
+        byte[] payload = new byte[manifest.length];
+        int offset = 0;
+        for (int i = 0; i < manifest.chunkCount; i++) {
+            final String chunkPath = manifest.chunkPath(path, i);
+            byte[] chunk = _timed(IZooKeeperMetrics.OP_GET_DATA, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    try {
+                        byte[] data = _reader(path).getData().forPath(chunkPath);
+                        return data != null ? data : ArrayUtils.EMPTY_BYTE_ARRAY;
+                    } catch (KeeperException.NoNodeException e) {
+                        return null;
+                    }
+                }
+            });
+            if (chunk == null || offset + chunk.length > payload.length) {
+                return null;
+            }
+            System.arraycopy(chunk, 0, payload, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return offset == payload.length ? Compression.decompress(payload) : null;
+    }
+
+    /**
+     * Removes chunks of a large value's generation, in background.
+     * 
+     * @param path
+     * @param manifest
+     * @since 0.4.2
+     */
+    private void _removeChunksAsync(String path, LargeDataManifest manifest) {
+        for (int i = 0; i < manifest.chunkCount; i++) {
+            try {
+                curatorFramework.delete().inBackground().forPath(manifest.chunkPath(path, i));
+            } catch (Exception e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    /**
+     * Header of subtree snapshots written by
+     * {@link #exportSubtree(String, OutputStream)}.
+     * 
+     * @since 0.4.2
+     */
+    private final static byte[] SNAPSHOT_MAGIC = { 'Z', 'K', 'S', 0x01 };
+
+    /**
+     * Maximum number of nodes created by one {@code multi} transaction by
+     * {@link #importSubtree(String, InputStream)}.
+     * 
+     * @since 0.4.2
+     */
+    private final static int IMPORT_BATCH_SIZE = 1000;
+
+    /**
+     * Maximum total data size of nodes created by one {@code multi}
+     * transaction, to keep requests below ZooKeeper's default
+     * {@code jute.maxbuffer} (1 MB).
+     * 
+     * @since 0.4.2
+     */
+    private final static int IMPORT_BATCH_BYTES = 512 * 1024;
+
+    /**
+     * Exports a subtree to a binary snapshot.
+     * 
+     * <p>
+     * Nodes are read with pipelined background reads (see
+     * {@link #walk(String, int, Predicate, INodeVisitor)}) and streamed out as
+     * they arrive: each node is written as its path relative to {@code root}
+     * and its data, both length-prefixed, parents before children. Ephemeral
+     * nodes are not exported.
+     * </p>
+     * 
+     * @param root
+     * @param out
+     *            the stream is flushed but not closed
+     * @return number of exported nodes
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     * @throws IOException
+     * @see #importSubtree(String, InputStream)
+     */
+    public int exportSubtree(final String root, OutputStream out) throws ZooKeeperException,
+            IOException {
+        final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.write(SNAPSHOT_MAGIC);
+        final int[] exported = { 0 };
+        final IOException[] error = { null };
+        walk(root, Integer.MAX_VALUE, null, new INodeVisitor() {
+            @Override
+            public boolean visit(ChildData node, int depth) {
+                if (node.getStat().getEphemeralOwner() != 0) {
+                    return true;
+                }
+                String path = node.getPath();
+                String relativePath = depth == 0 ? "" : path.substring(root.endsWith("/") ? root
+                        .length() : root.length() + 1);
+                try {
+                    byte[] pathBytes = relativePath.getBytes(UTF8);
+                    dos.writeInt(pathBytes.length);
+                    dos.write(pathBytes);
+                    byte[] data = node.getData();
+                    dos.writeInt(data != null ? data.length : -1);
+                    if (data != null) {
+                        dos.write(data);
+                    }
+                    exported[0]++;
+                    return true;
+                } catch (IOException e) {
+                    error[0] = e;
+                    return false;
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        dos.writeInt(-1);
+        dos.flush();
+        return exported[0];
+    }
+
+    /**
+     * Imports a snapshot written by
+     * {@link #exportSubtree(String, OutputStream)} under a (possibly
+     * different) root.
+     * 
+     * <p>
+     * Nodes are created as {@link CreateMode#PERSISTENT} in batched
+     * {@code multi} transactions. If a batch fails (e.g. some nodes already
+     * exist), its nodes are upserted one by one (pipelined) instead, so
+     * existing nodes are overwritten.
+     * </p>
+     * 
+     * @param root
+     * @param in
+     *            the stream is not closed
+     * @return number of imported nodes
+     * @since 0.4.2
+     * @throws ZooKeeperException
+     * @throws IOException
+     *             if the snapshot is malformed or cannot be read
+     */
+    public int importSubtree(String root, InputStream in) throws ZooKeeperException,
+            IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+        dis.readFully(magic);
+        if (!Arrays.equals(SNAPSHOT_MAGIC, magic)) {
+            throw new IOException("Not a subtree snapshot");
+        }
+        String parent = ZKPaths.getPathAndNode(root).getPath();
+        if (!"/".equals(root) && !"/".equals(parent)) {
+            // through Curator, so the retry policy applies
+            _create(parent, null, CreateMode.PERSISTENT);
+        }
+
+        int imported = 0;
+        List<String> paths = new ArrayList<String>();
+        List<byte[]> values = new ArrayList<byte[]>();
+        int batchBytes = 0;
+        for (int pathLength = dis.readInt(); pathLength >= 0; pathLength = dis.readInt()) {
+            byte[] pathBytes = new byte[pathLength];
+            dis.readFully(pathBytes);
+            int dataLength = dis.readInt();
+            byte[] data = dataLength >= 0 ? new byte[dataLength] : null;
+            if (data != null) {
+                dis.readFully(data);
+            }
+            String relativePath = new String(pathBytes, UTF8);
+            int nodeBytes = pathLength + Math.max(dataLength, 0);
+            if (paths.size() >= IMPORT_BATCH_SIZE
+                    || (batchBytes > 0 && batchBytes + nodeBytes > IMPORT_BATCH_BYTES)) {
+                _importBatch(paths, values);
+                imported += paths.size();
+                paths.clear();
+                values.clear();
+                batchBytes = 0;
+            }
+            paths.add(relativePath.isEmpty() ? root : ZKPaths.makePath(root, relativePath));
+            values.add(data);
+            batchBytes += nodeBytes;
+        }
+        if (paths.size() > 0) {
+            _importBatch(paths, values);
+            imported += paths.size();
+        }
+        return imported;
+    }
+
+    /**
+     * Creates a batch of nodes in one {@code multi} transaction; if that
+     * fails, upserts them one by one (pipelined).
+     * 
+     * @param paths
+     * @param values
+     * @throws ZooKeeperException
+     * @since 0.4.2
+     */
+    private void _importBatch(final List<String> paths, final List<byte[]> values)
+            throws ZooKeeperException {
+        boolean committed = false;
+        try {
+            _timed(IZooKeeperMetrics.OP_MULTI, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    CuratorTransaction curatorTransaction = curatorFramework.inTransaction();
+                    for (int i = 0, n = paths.size(); i < n; i++) {
+                        byte[] data = values.get(i);
+                        curatorTransaction = curatorTransaction.create()
+                                .withMode(CreateMode.PERSISTENT)
+                                .forPath(paths.get(i),
+                                        data != null ? _compress(data)
+                                                : ArrayUtils.EMPTY_BYTE_ARRAY).and();
+                    }
+                    ((CuratorTransactionFinal) curatorTransaction).commit();
+                    return null;
+                }
+            });
+            committed = true;
+        } catch (ZooKeeperException e) {
+            if (!(e.getCause() instanceof KeeperException)) {
+                throw e;
+            }
+            // e.g. some nodes exist: fall back to one by one
+        }
+
+        if (committed) {
+            _invalidateCache(paths);
+        } else {
+            List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+            for (int i = 0, n = paths.size(); i < n; i++) {
+                futures.add(setDataAsync(paths.get(i), values.get(i), true));
             }
+            _await(Futures.allAsList(futures));
         }
     }
 
+    /*----------------------------------------------------------------------*/
+
     /**
-     * Reads raw data from a node.
+     * Maximum number of nodes removed by one {@code multi} transaction by
+     * {@link #removeNode(String, boolean)}.
+     * 
+     * @since 0.4.2
+     */
+    private final static int REMOVE_BATCH_SIZE = 1000;
+
+    /**
+     * Lists a subtree level by level, in background: children of all nodes
+     * of a level are fetched concurrently, from the main session (which
+     * removes the nodes).
      * 
      * @param path
-     * @return
-     * @throws ZooKeeperException
+     * @return levels of the subtree, top-down; the first one is {@code [path]}
+     * @since 0.4.2
      */
-    private byte[] _readRaw(String path) throws ZooKeeperException {
-        try {
-            byte[] data = curatorFramework.getData().forPath(path);
-            // if (cacheRaw != null) {
-            _watchNode(path);
-            // }
-            return data;
-        } catch (KeeperException.NoNodeException e) {
-            return null;
-        } catch (KeeperException.ConnectionLossException e) {
-            throw new ZooKeeperException.ClientDisconnectedException();
-        } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
-            }
+    private ListenableFuture<List<List<String>>> _listTreeAsync(String path) {
+        return _listLevelsAsync(new ArrayList<List<String>>(), Collections.singletonList(path));
+    }
+
+    private ListenableFuture<List<List<String>>> _listLevelsAsync(
+            final List<List<String>> levels, final List<String> level) {
+        if (level.isEmpty()) {
+            return Futures.immediateFuture(levels);
+        }
+        levels.add(level);
+        List<ListenableFuture<String[]>> futures = new ArrayList<ListenableFuture<String[]>>();
+        for (String node : level) {
+            futures.add(_getChildrenAsync(curatorFramework, node));
         }
+        return Futures.transform(Futures.allAsList(futures),
+                new AsyncFunction<List<String[]>, List<List<String>>>() {
+                    @Override
+                    public ListenableFuture<List<List<String>>> apply(List<String[]> childrenList) {
+                        return _listLevelsAsync(levels, _nextLevel(level, childrenList));
+                    }
+                });
     }
 
     /**
-     * Reads Json data from a node.
+     * Lists a subtree level by level, with synchronous reads; used on
+     * ZooKeeper's event thread.
      * 
      * @param path
-     * @return
+     * @return levels of the subtree, top-down; the first one is {@code [path]}
      * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    private Object _readJson(String path) throws ZooKeeperException {
-        String jsonString = getData(path);
-        try {
-            return jsonString != null ? SerializationUtils.fromJsonString(jsonString) : null;
-        } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
+    private List<List<String>> _listTreeSync(String path) throws ZooKeeperException {
+        List<List<String>> levels = new ArrayList<List<String>>();
+        List<String> level = Collections.singletonList(path);
+        while (!level.isEmpty()) {
+            levels.add(level);
+            List<String[]> childrenList = new ArrayList<String[]>();
+            for (String node : level) {
+                childrenList.add(_getChildren(curatorFramework, node));
             }
+            level = _nextLevel(level, childrenList);
         }
+        return levels;
     }
 
-    private boolean _write(String path, byte[] data, boolean createNodes) throws ZooKeeperException {
-        try {
-            boolean result = true;
-            if (createNodes && !nodeExists(path)) {
-                result = _create(path, data, CreateMode.PERSISTENT);
-            } else {
-                curatorFramework.setData().forPath(path, data);
-            }
-            if (result) {
-                _invalidateCache(path, data);
-            }
-            return result;
-        } catch (InterruptedException e) {
-            return false;
-        } catch (KeeperException.NoNodeException e) {
-            return false;
-        } catch (KeeperException.ConnectionLossException e) {
-            throw new ZooKeeperException.ClientDisconnectedException();
-        } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
+    private static List<String> _nextLevel(List<String> level, List<String[]> childrenList) {
+        List<String> nextLevel = new ArrayList<String>();
+        for (int i = 0, n = level.size(); i < n; i++) {
+            String[] children = childrenList.get(i);
+            if (children != null) {
+                for (String child : children) {
+                    nextLevel.add(ZKPaths.makePath(level.get(i), child));
+                }
             }
         }
+        return nextLevel;
     }
 
-    private final static Charset UTF8 = Charset.forName("UTF-8");
-
     /**
-     * Creates an empty ephemeral node.
-     * 
-     * <p>
-     * Note: nodes are created recursively (parent nodes are created if needed).
-     * </p>
+     * Removes a node and all its descendants.
      * 
      * @param path
      * @return
-     * @since 0.4.1
      * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public boolean createEphemeralNode(String path) throws ZooKeeperException {
-        return _create(path, null, CreateMode.EPHEMERAL);
+    private boolean _removeTree(String path) throws ZooKeeperException {
+        List<List<String>> levels = _isEventThread() ? _listTreeSync(path)
+                : _await(_listTreeAsync(path));
+
+        // remove bottom-up
+        boolean result = true;
+        List<String> removedPaths = new ArrayList<String>();
+        try {
+            for (int i = levels.size() - 1; i >= 0; i--) {
+                List<String> paths = levels.get(i);
+                for (int from = 0, n = paths.size(); from < n; from += REMOVE_BATCH_SIZE) {
+                    List<String> batch = paths.subList(from, Math.min(n, from + REMOVE_BATCH_SIZE));
+                    result &= _removeBatch(batch, removedPaths);
+                }
+            }
+        } finally {
+            _removed(removedPaths);
+        }
+        return result;
     }
 
     /**
-     * Creates an ephemeral node, with initial values.
+     * Removes a node and all its descendants, in background.
      * 
      * <p>
-     * Note: nodes are created recursively (parent nodes are created if needed).
+     * Curator 2/ZooKeeper 3.4 have no background {@code multi}: each level is
+     * removed by concurrent (pipelined) deletes instead of batched
+     * transactions, i.e. one round trip per level.
      * </p>
      * 
      * @param path
-     * @param value
      * @return
-     * @since 0.4.1
-     * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public boolean createEphemeralNode(String path, byte[] value) throws ZooKeeperException {
-        return _create(path, value, CreateMode.EPHEMERAL);
+    private ListenableFuture<Boolean> _removeTreeAsync(String path) {
+        final List<String> removedPaths = new CopyOnWriteArrayList<String>();
+        ListenableFuture<Boolean> future = Futures.transform(_listTreeAsync(path),
+                new AsyncFunction<List<List<String>>, Boolean>() {
+                    @Override
+                    public ListenableFuture<Boolean> apply(List<List<String>> levels) {
+                        return _removeLevelsAsync(levels, levels.size() - 1, true, removedPaths);
+                    }
+                });
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                _removed(removedPaths);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private ListenableFuture<Boolean> _removeLevelsAsync(final List<List<String>> levels,
+            final int index, final boolean result, final List<String> removedPaths) {
+        if (index < 0) {
+            return Futures.immediateFuture(result);
+        }
+        final List<String> paths = levels.get(index);
+        final List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+        for (String path : paths) {
+            futures.add(_deleteAsync(path));
+        }
+        // wait for all deletes, so that removed nodes are known even if some
+        // failed
+        return Futures.transform(Futures.successfulAsList(futures),
+                new AsyncFunction<List<Boolean>, Boolean>() {
+                    @Override
+                    public ListenableFuture<Boolean> apply(List<Boolean> results)
+                            throws InterruptedException {
+                        boolean levelResult = result;
+                        ListenableFuture<Boolean> failed = null;
+                        for (int i = 0, n = paths.size(); i < n; i++) {
+                            Boolean removed = results.get(i);
+                            if (removed == null) {
+                                failed = futures.get(i);
+                            } else if (removed.booleanValue()) {
+                                removedPaths.add(paths.get(i));
+                            } else {
+                                levelResult = false;
+                            }
+                        }
+                        if (failed != null) {
+                            try {
+                                failed.get();
+                            } catch (ExecutionException e) {
+                                return Futures.immediateFailedFuture(e.getCause());
+                            }
+                        }
+                        return _removeLevelsAsync(levels, index - 1, levelResult, removedPaths);
+                    }
+                });
     }
 
     /**
-     * Creates an ephemeral node, with initial values.
+     * Invalidates cached data of removed nodes, and forgets the ephemeral
+     * ones.
      * 
-     * <p>
-     * Note: nodes are created recursively (parent nodes are created if needed).
-     * </p>
+     * @param removedPaths
+     * @since 0.4.2
+     */
+    private void _removed(List<String> removedPaths) {
+        _invalidateCache(removedPaths);
+        for (String removedPath : removedPaths) {
+            _forgetEphemeralNode(removedPath);
+        }
+    }
+
+    /**
+     * Removes a batch of nodes in one {@code multi} transaction; if that
+     * fails (some node has been removed, or got children, in the meantime),
+     * removes them one by one (pipelined).
      * 
-     * @param path
-     * @param value
-     * @return
-     * @since 0.4.1
+     * @param paths
+     * @param removedPaths
+     *            removed nodes are added to this list
+     * @return {@code true} if all nodes have been removed
      * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public boolean createEphemeralNode(String path, String value) throws ZooKeeperException {
-        return _create(path, value != null ? value.getBytes(UTF8) : null, CreateMode.EPHEMERAL);
+    private boolean _removeBatch(final List<String> paths, List<String> removedPaths)
+            throws ZooKeeperException {
+        try {
+            _timed(IZooKeeperMetrics.OP_MULTI, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    CuratorTransaction curatorTransaction = curatorFramework.inTransaction();
+                    for (String path : paths) {
+                        curatorTransaction = curatorTransaction.delete().forPath(path).and();
+                    }
+                    ((CuratorTransactionFinal) curatorTransaction).commit();
+                    return null;
+                }
+            });
+            removedPaths.addAll(paths);
+            return true;
+        } catch (ZooKeeperException e) {
+            if (!(e.getCause() instanceof KeeperException)) {
+                throw e;
+            }
+            // e.g. some nodes have been removed, or have got children, in
+            // the meantime: fall back to one by one
+        }
+
+        List<Boolean> results;
+        if (_isEventThread()) {
+            results = new ArrayList<Boolean>();
+            for (String path : paths) {
+                results.add(_deleteSync(path));
+            }
+        } else {
+            List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+            for (String path : paths) {
+                futures.add(_deleteAsync(path));
+            }
+            results = _await(Futures.allAsList(futures));
+        }
+        boolean result = true;
+        for (int i = 0, n = paths.size(); i < n; i++) {
+            if (results.get(i).booleanValue()) {
+                removedPaths.add(paths.get(i));
+            } else {
+                result = false;
+            }
+        }
+        return result;
     }
 
     /**
-     * Creates an empty node.
+     * Removes a node in background, without touching caches.
      * 
-     * <p>
-     * Note: nodes are created recursively (parent nodes are created if needed).
-     * </p>
+     * @param path
+     * @return {@code true} if the node has been removed (or did not exist),
+     *         {@code false} if it has children
+     * @since 0.4.2
+     */
+    private ListenableFuture<Boolean> _deleteAsync(final String path) {
+        AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>(IZooKeeperMetrics.OP_DELETE) {
+            @Override
+            protected Boolean onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                case NONODE:
+                    return Boolean.TRUE;
+                case NOTEMPTY:
+                    return Boolean.FALSE;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+        };
+        try {
+            curatorFramework.delete().inBackground(callback).forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
+    }
+
+    /**
+     * Removes a node synchronously, without touching caches; used on
+     * ZooKeeper's event thread.
      * 
      * @param path
-     * @return
+     * @return {@code true} if the node has been removed (or did not exist),
+     *         {@code false} if it has children
      * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public boolean createNode(String path) throws ZooKeeperException {
-        return _create(path, null, CreateMode.PERSISTENT);
+    private boolean _deleteSync(final String path) throws ZooKeeperException {
+        return _timed(IZooKeeperMetrics.OP_DELETE, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                try {
+                    curatorFramework.delete().forPath(path);
+                } catch (KeeperException.NotEmptyException e) {
+                    return Boolean.FALSE;
+                } catch (KeeperException.NoNodeException e) {
+                    // removed in the meantime
+                }
+                return Boolean.TRUE;
+            }
+        });
     }
 
     /**
-     * Creates a node, with initial values.
+     * Invalidates cached data of many nodes at once.
      * 
-     * <p>
-     * Note: nodes are created recursively (parent nodes are created if needed).
-     * </p>
+     * @param paths
+     * @since 0.4.2
+     */
+    private void _invalidateCache(Collection<String> paths) {
+        for (String path : paths) {
+            pendingReads.remove(path);
+            staleNodes.remove(path);
+            if (localCache != null) {
+                localCache.invalidate(path);
+            }
+            if (missingNodes != null) {
+                missingNodes.invalidate(path);
+            }
+        }
+
+        // external caches may be shared with other keys (or clients): delete
+        // node by node, never clear them
+        ICache cacheJson = cacheNameJson != null ? getCache(cacheNameJson) : null;
+        ICache cacheRaw = cacheNameRaw != null ? getCache(cacheNameRaw) : null;
+        for (ICache cache : new ICache[] { cacheJson, cacheRaw }) {
+            if (cache == null) {
+                continue;
+            }
+            for (String path : paths) {
+                cache.delete(path);
+            }
+        }
+    }
+
+    private void _invalidateCache(String path) {
+        _invalidateCache(path, null, null);
+    }
+
+    private void _invalidateCache(String path, byte[] newData) {
+        _invalidateCache(path, newData, null);
+    }
+
+    /**
+     * Gets a node from the local cache.
      * 
      * @param path
-     * @param value
      * @return
-     * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public boolean createNode(String path, byte[] value) throws ZooKeeperException {
-        return _create(path, value, CreateMode.PERSISTENT);
+    private CachedNode _getFromLocalCache(String path) {
+        return localCache != null ? localCache.getIfPresent(path) : null;
     }
 
     /**
-     * Creates a node, with initial values.
+     * Puts a node to the local cache, only if the node is being watched (so
+     * that the cached entry will be kept up-to-date).
      * 
-     * <p>
-     * Note: nodes are created recursively (parent nodes are created if needed).
-     * </p>
+     * @param path
+     * @param data
+     * @param stat
+     * @return the cached entry, or {@code null} if the node is not cached
+     * @since 0.4.2
+     */
+    private CachedNode _putToLocalCache(String path, byte[] data, Stat stat) {
+        Cache<String, CachedNode> localCache = this.localCache;
+        if (localCache != null) {
+            if (data != null && stat != null && watchedPaths.contains(path)) {
+                return _putIfNewer(localCache, path, new CachedNode(data, stat));
+            }
+            localCache.invalidate(path);
+        }
+        return null;
+    }
+
+    /**
+     * Puts a node to the local cache unless the cached entry is the same or a
+     * newer version (by {@link Stat#getMzxid()}), so that the cache never goes
+     * back in time, e.g. when this client's own write races with a reload on
+     * the event thread, or data is read from a lagging server.
      * 
+     * @param localCache
      * @param path
-     * @param value
-     * @return
-     * @throws ZooKeeperException
+     * @param cachedNode
+     * @return the entry in cache: {@code cachedNode}, or the current entry
+     *         (with its decoded values) if it is the same or newer
+     * @since 0.4.2
      */
-    public boolean createNode(String path, String value) throws ZooKeeperException {
-        return _create(path, value != null ? value.getBytes(UTF8) : null, CreateMode.PERSISTENT);
+    private static CachedNode _putIfNewer(Cache<String, CachedNode> localCache, String path,
+            CachedNode cachedNode) {
+        ConcurrentMap<String, CachedNode> map = localCache.asMap();
+        while (true) {
+            CachedNode current = map.putIfAbsent(path, cachedNode);
+            if (current == null) {
+                return cachedNode;
+            }
+            if (current.stat.getMzxid() >= cachedNode.stat.getMzxid()) {
+                return current;
+            }
+            if (map.replace(path, current, cachedNode)) {
+                return cachedNode;
+            }
+        }
     }
 
     /**
-     * Checks if a path exists.
+     * Invalidates cached data of a node, or updates it if the new data is
+     * known.
      * 
      * @param path
-     * @return
-     * @throws ZooKeeperException
+     * @param newData
+     * @param newStat
+     * @since 0.4.2
      */
-    public boolean nodeExists(String path) throws ZooKeeperException {
-        try {
-            Stat stat = curatorFramework.checkExists().forPath(path);
-            return stat != null;
-        } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
+    private void _invalidateCache(String path, byte[] newData, Stat newStat) {
+        // reads started from now on must not join a read issued before
+        pendingReads.remove(path);
+        staleNodes.remove(path);
+        if (newData != null) {
+            // keep data of ephemeral nodes to be re-created up-to-date
+            ephemeralNodes.replace(path, newData);
+        }
+
+        _putToLocalCache(path, newData, newStat);
+
+        if (missingNodes != null) {
+            missingNodes.invalidate(path);
+        }
+
+        ICache cacheJson = cacheNameJson != null ? getCache(cacheNameJson) : null;
+        if (cacheJson != null) {
+            cacheJson.delete(path);
+        }
+
+        ICache cacheRaw = cacheNameRaw != null ? getCache(cacheNameRaw) : null;
+        if (cacheRaw != null) {
+            if (newData == null) {
+                cacheRaw.delete(path);
             } else {
-                throw new ZooKeeperException(e);
+                cacheRaw.set(path, newData);
             }
         }
     }
 
     /**
-     * Gets children of a node.
+     * Saves nodes held by the local cache to the local snapshot file, see
+     * {@link #setLocalSnapshotFile(String)}. Nodes loaded from the snapshot
+     * that have not been revalidated yet are kept.
+     * 
+     * @return number of saved nodes
+     * @since 0.4.2
+     * @throws IOException
+     */
+    public int saveLocalSnapshot() throws IOException {
+        if (localSnapshotFile == null) {
+            return 0;
+        }
+        Map<String, ChildData> nodes = new LinkedHashMap<String, ChildData>(staleNodes);
+        Cache<String, CachedNode> localCache = this.localCache;
+        if (localCache != null) {
+            for (Entry<String, CachedNode> entry : localCache.asMap().entrySet()) {
+                CachedNode cachedNode = entry.getValue();
+                if (cachedNode.stat.getEphemeralOwner() == 0) {
+                    nodes.put(entry.getKey(), new ChildData(entry.getKey(), cachedNode.stat,
+                            cachedNode.data));
+                }
+            }
+        }
+        LocalSnapshot.save(new File(localSnapshotFile), nodes.values());
+        return nodes.size();
+    }
+
+    /**
+     * Loads nodes from the local snapshot file, if any.
+     * 
+     * @since 0.4.2
+     */
+    private void _loadLocalSnapshot() {
+        staleNodes.clear();
+        if (localSnapshotFile != null) {
+            try {
+                staleNodes.putAll(LocalSnapshot.load(new File(localSnapshotFile)));
+            } catch (IOException e) {
+                LOGGER.warn("Cannot load local snapshot: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Forgets an ephemeral node removed by this client, so that it is not
+     * re-created after the session is lost.
+     * 
+     * @param path
+     * @since 0.4.2
+     */
+    private void _forgetEphemeralNode(String path) {
+        ephemeralNodes.remove(path);
+    }
+
+    /**
+     * Recovers from a lost connection/session, in background: re-creates
+     * ephemeral nodes created by this client (main session), then re-watches
+     * nodes whose watch was dropped and revalidates stale nodes (sessions
+     * reading them).
+     * 
+     * <p>
+     * At most {@link #RECOVERY_MAX_CONCURRENCY} requests are in flight at a
+     * time, and nodes whose last-known {@link Stat} is still current are
+     * re-watched with {@code exists} without reading their data again, so
+     * that recovering thousands of watched nodes does not flood the ensemble.
+     * </p>
+     * 
+     * @param session
+     *            the session that reconnected, {@code null} for all sessions
+     * @since 0.4.2
+     */
+    private void _recover(CuratorFramework session) {
+        final Queue<String> ephemeralQueue = new ConcurrentLinkedQueue<String>();
+        if (session == null || session == curatorFramework) {
+            ephemeralQueue.addAll(ephemeralNodes.keySet());
+        }
+        Set<String> paths = new LinkedHashSet<String>(lostWatches.keySet());
+        paths.addAll(staleNodes.keySet());
+        final Queue<String> watchQueue = new ConcurrentLinkedQueue<String>();
+        for (String path : paths) {
+            if (session == null || _reader(path) == session) {
+                watchQueue.add(path);
+            }
+        }
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    String path = ephemeralQueue.poll();
+                    ListenableFuture<?> future;
+                    if (path != null) {
+                        future = _recreateEphemeralNode(path);
+                    } else if ((path = watchQueue.poll()) != null) {
+                        future = _rewatchNode(path);
+                    } else {
+                        return;
+                    }
+                    if (!future.isDone()) {
+                        // continue with the next node once this one is done
+                        future.addListener(this, MoreExecutors.directExecutor());
+                        return;
+                    }
+                }
+            }
+        };
+        for (int i = 0; i < RECOVERY_MAX_CONCURRENCY; i++) {
+            worker.run();
+        }
+    }
+
+    /**
+     * Re-creates an ephemeral node created by this client, in background.
      * 
      * @param path
      * @return
-     * @since 0.2.0
-     * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public String[] getChildren(String path) throws ZooKeeperException {
-        try {
-            List<String> result = curatorFramework.getChildren().forPath(path);
-            return result != null ? result.toArray(ArrayUtils.EMPTY_STRING_ARRAY) : null;
-        } catch (KeeperException.NoNodeException e) {
-            return null;
-        } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
+    private ListenableFuture<Void> _recreateEphemeralNode(final String path) {
+        byte[] data = ephemeralNodes.get(path);
+        if (data == null) {
+            return Futures.immediateFuture(null);
+        }
+        AsyncCallback<Boolean> callback = new AsyncCallback<Boolean>(IZooKeeperMetrics.OP_CREATE) {
+            @Override
+            protected Boolean onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    _invalidateCache(path);
+                    return Boolean.TRUE;
+                case NODEEXISTS:
+                    return Boolean.FALSE;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
             }
+
+            @Override
+            protected void onFailure(ZooKeeperException e) {
+                LOGGER.warn("Cannot re-create ephemeral node [" + path + "]: " + e.getMessage(), e);
+                super.onFailure(e);
+            }
+        };
+        try {
+            curatorFramework.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                    .inBackground(callback).forPath(path, _compress(data));
+        } catch (Exception e) {
+            callback.fail(e);
         }
+        return Futures.transform(callback.future, new AsyncFunction<Boolean, Void>() {
+            @Override
+            public ListenableFuture<Void> apply(Boolean created) {
+                return created.booleanValue() ? Futures.<Void> immediateFuture(null)
+                        : _checkEphemeralOwner(path);
+            }
+        });
     }
 
     /**
-     * Reads raw data from a node.
+     * Checks, in background, that an existing ephemeral node tracked by this
+     * client is owned by the current session; if another client has created
+     * it in the meantime (e.g. after this client's session expired), the
+     * node is no longer tracked.
      * 
      * @param path
      * @return
-     * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public byte[] getDataRaw(String path) throws ZooKeeperException {
-        try {
-            byte[] data = getFromCache(cacheNameRaw, path, byte[].class);
-            if (data == null) {
-                data = _readRaw(path);
-                putToCache(cacheNameRaw, path, data);
+    private ListenableFuture<Void> _checkEphemeralOwner(final String path) {
+        final long sessionId = _sessionId(curatorFramework);
+        AsyncCallback<Void> callback = new AsyncCallback<Void>(IZooKeeperMetrics.OP_EXISTS) {
+            @Override
+            protected Void onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    if (event.getStat().getEphemeralOwner() != sessionId) {
+                        LOGGER.warn("Ephemeral node [" + path + "] is owned by another session,"
+                                + " no longer re-created by this client");
+                        ephemeralNodes.remove(path);
+                    }
+                    return null;
+                case NONODE:
+                    // removed in the meantime: re-created on next reconnect
+                    return null;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
             }
-            return data;
-        } catch (ZooKeeperException.NodeNotFoundException e) {
-            return null;
+        };
+        try {
+            curatorFramework.checkExists().inBackground(callback).forPath(path);
         } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
-            }
+            callback.fail(e);
         }
+        return callback.future;
     }
 
     /**
-     * Reads data from a node as a JSON object.
+     * Gets the current session ID of a {@link CuratorFramework}.
      * 
-     * @param path
-     * @return
-     * @since 0.3.1
-     * @throws ZooKeeperException
+     * @param session
+     * @return the session ID, or {@code 0} if unknown
+     * @since 0.4.2
      */
-    public Object getDataJson(String path) throws ZooKeeperException {
+    private static long _sessionId(CuratorFramework session) {
         try {
-            Object data = getFromCache(cacheNameJson, path);
-            if (data == null) {
-                data = _readJson(path);
-                putToCache(cacheNameJson, path, data);
-            }
-            return data;
-        } catch (ZooKeeperException.NodeNotFoundException e) {
-            return null;
+            return session.getZookeeperClient().getZooKeeper().getSessionId();
         } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
-            }
+            return 0;
         }
     }
 
     /**
-     * Reads data from a node.
+     * Re-watches a node whose watch was dropped, or revalidates a stale node,
+     * in background.
+     * 
+     * <p>
+     * If the node's last-known {@link Stat} is known, only an exists-watch is
+     * registered and the last-known data is cached again if the node has not
+     * been modified since; otherwise the node is read again.
+     * </p>
      * 
      * @param path
      * @return
-     * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public String getData(String path) throws ZooKeeperException {
-        byte[] data = getDataRaw(path);
-        return data != null ? new String(data, UTF8) : null;
+    private ListenableFuture<?> _rewatchNode(final String path) {
+        ChildData lostWatch = lostWatches.remove(path);
+        ChildData staleNode = staleNodes.get(path);
+        final ChildData known = staleNode != null ? staleNode : lostWatch != null ? lostWatch
+                : new ChildData(path, null, null);
+        if (known.getStat() == null || known.getData() == null) {
+            ListenableFuture<ChildData> future = _loadAsync(path);
+            Futures.addCallback(future, new FutureCallback<ChildData>() {
+                @Override
+                public void onSuccess(ChildData node) {
+                    staleNodes.remove(path, known);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    // retry on next reconnect
+                    lostWatches.putIfAbsent(path, known);
+                    LOGGER.debug(t.getMessage(), t);
+                }
+            });
+            return future;
+        }
+        if (!watchedPaths.add(path)) {
+            // re-watched by a read in the meantime
+            staleNodes.remove(path, known);
+            return Futures.immediateFuture(null);
+        }
+        AsyncCallback<Void> callback = new AsyncCallback<Void>(IZooKeeperMetrics.OP_EXISTS) {
+            @Override
+            protected Void onResult(KeeperException.Code code, CuratorEvent event) {
+                switch (code) {
+                case OK:
+                    if (event.getStat().getMzxid() == known.getStat().getMzxid()) {
+                        // unchanged: no need to read data again
+                        _putToLocalCache(path, known.getData(), event.getStat());
+                        staleNodes.remove(path, known);
+                    } else {
+                        // modified: will be read (without re-watching) on
+                        // next access
+                        _invalidateCache(path);
+                    }
+                    return null;
+                case NONODE:
+                    // the watch fires NodeCreated when the node is created
+                    _invalidateCache(path);
+                    if (missingNodes != null) {
+                        missingNodes.put(path, Boolean.TRUE);
+                    }
+                    return null;
+                default:
+                    throw _toZooKeeperException(code, path);
+                }
+            }
+
+            @Override
+            protected void onFailure(ZooKeeperException e) {
+                watchedPaths.remove(path);
+                lostWatches.putIfAbsent(path, known);
+                LOGGER.debug(e.getMessage(), e);
+                super.onFailure(e);
+            }
+        };
+        try {
+            _reader(path).checkExists().usingWatcher(nodeWatcher).inBackground(callback)
+                    .forPath(path);
+        } catch (Exception e) {
+            callback.fail(e);
+        }
+        return callback.future;
     }
 
     /**
-     * Removes an existing node.
-     * 
-     * <p>
-     * Node with children will not be removed.
-     * </p>
+     * Connects to ZooKeeper server.
      * 
-     * @param path
-     * @return {@code true} if node has been removed successfully, {@code false}
-     *         otherwise (maybe node is not empty)
-     * @since 0.4.1
-     * @throws ZooKeeperException
+     * @throws IOException
      */
-    public boolean removeNode(String path) throws ZooKeeperException {
-        return removeNode(path, false);
+    private void _connect() throws IOException {
+        RetryPolicy retryPolicy = this.retryPolicy;
+        if (operationTimeout > 0) {
+            retryPolicy = new DeadlineRetryPolicy(retryPolicy, operationTimeout);
+        }
+        curatorFramework = _newCuratorFramework(connectString, retryPolicy);
+        curatorFramework.start();
+        int readSessions = readSessionCount > 0 ? readSessionCount
+                : readConnectString != null ? 1 : 0;
+        for (int i = 0; i < readSessions; i++) {
+            CuratorFramework reader = _newCuratorFramework(
+                    readConnectString != null ? readConnectString : connectString, retryPolicy);
+            readCuratorFrameworks.add(reader);
+            reader.start();
+        }
+    }
+
+    private CuratorFramework _newCuratorFramework(String connectString, RetryPolicy retryPolicy) {
+        return CuratorFrameworkFactory.builder().connectString(connectString)
+                .sessionTimeoutMs(sessionTimeout).connectionTimeoutMs(connectionTimeout)
+                .retryPolicy(retryPolicy).canBeReadOnly(readOnlyModeAllowed).build();
     }
 
     /**
-     * Removes an existing node.
+     * Gets the {@link CuratorFramework} reads of a path are sent to.
      * 
      * @param path
-     * @param removeChildren
-     *            {@code true} to indicate that child nodes should be removed
-     *            too
-     * @return {@code true} if node has been removed successfully, {@code false}
-     *         otherwise (maybe node is not empty)
-     * @since 0.4.1
-     * @throws ZooKeeperException
+     * @return
+     * @since 0.4.2
      */
-    public boolean removeNode(String path, boolean removeChildren) throws ZooKeeperException {
+    private CuratorFramework _reader(String path) {
+        List<CuratorFramework> readers = readCuratorFrameworks;
+        int n = readers.size();
+        if (n == 0) {
+            return curatorFramework;
+        }
         try {
-            if (removeChildren) {
-                curatorFramework.delete().deletingChildrenIfNeeded().forPath(path);
-            } else {
-                curatorFramework.delete().forPath(path);
-            }
-        } catch (KeeperException.NotEmptyException e) {
-            return false;
-        } catch (KeeperException.NoNodeException e) {
-            return true;
-        } catch (Exception e) {
-            if (e instanceof ZooKeeperException) {
-                throw (ZooKeeperException) e;
-            } else {
-                throw new ZooKeeperException(e);
-            }
+            return readers.get((path.hashCode() & Integer.MAX_VALUE) % n);
+        } catch (IndexOutOfBoundsException e) {
+            // closed in the meantime
+            return curatorFramework;
         }
-        _invalidateCache(path);
-        return true;
     }
 
     /**
-     * Writes raw data to a node.
+     * Stops retrying an operation once its deadline has passed, and never
+     * sleeps past it.
      * 
-     * @param path
-     * @param value
-     * @return {@code true} if write successfully, {@code false} otherwise (note
-     *         does not exist, for example)
-     * @throws ZooKeeperException
+     * @since 0.4.2
      */
-    public boolean setData(String path, byte[] value) throws ZooKeeperException {
-        return setData(path, value, false);
+    private static class DeadlineRetryPolicy implements RetryPolicy {
+        private final RetryPolicy retryPolicy;
+        private final long deadlineMs;
+
+        public DeadlineRetryPolicy(RetryPolicy retryPolicy, long deadlineMs) {
+            this.retryPolicy = retryPolicy;
+            this.deadlineMs = deadlineMs;
+        }
+
+        @Override
+        public boolean allowRetry(int retryCount, final long elapsedTimeMs,
+                final RetrySleeper sleeper) {
+            if (elapsedTimeMs >= deadlineMs) {
+                return false;
+            }
+            return retryPolicy.allowRetry(retryCount, elapsedTimeMs, new RetrySleeper() {
+                @Override
+                public void sleepFor(long time, TimeUnit unit) throws InterruptedException {
+                    long remaining = deadlineMs - elapsedTimeMs;
+                    sleeper.sleepFor(Math.min(unit.toMillis(time), remaining),
+                            TimeUnit.MILLISECONDS);
+                }
+            });
+        }
     }
 
     /**
-     * Writes raw data to a node.
+     * Disconnects from ZooKeeper server
      * 
-     * @param path
-     * @param value
-     * @param createNodes
-     *            {@code true} to have nodes to be created if not exist
-     * @return {@code true} if write successfully, {@code false} otherwise (note
-     *         does not exist, for example)
-     * @throws ZooKeeperException
+     * @throws InterruptedException
      */
-    public boolean setData(String path, byte[] value, boolean createNodes)
-            throws ZooKeeperException {
-        return _write(path, value, createNodes);
+    private void _close() throws InterruptedException {
+        try {
+            for (CuratorFramework reader : readCuratorFrameworks) {
+                reader.close();
+            }
+        } finally {
+            readCuratorFrameworks.clear();
+        }
+        try {
+            if (curatorFramework != null) {
+                curatorFramework.close();
+            }
+        } finally {
+            curatorFramework = null;
+            disconnectedTimestamps.clear();
+            sessionIds.clear();
+            lostSessions.clear();
+        }
     }
 
     /**
-     * Writes data to a node.
+     * Finds the fully loaded mirror that covers a path.
      * 
      * @param path
-     * @param value
-     * @return {@code true} if write successfully, {@code false} otherwise (note
-     *         does not exist, for example)
-     * @throws ZooKeeperException
+     * @return
+     * @since 0.4.2
      */
-    public boolean setData(String path, String value) throws ZooKeeperException {
-        return setData(path, value, false);
+    private Mirror _mirrorFor(String path) {
+        for (Mirror mirror : mirrors) {
+            if (mirror.initialized && mirror.covers(path)) {
+                return mirror;
+            }
+        }
+        return null;
     }
 
     /**
-     * Writes data to a node.
+     * Gets a mirrored node, with data decompressed.
+     * 
+     * <p>
+     * Decompressed data is kept in the local cache (the mirror's listener
+     * invalidates it on change), so a node is decompressed once per version.
+     * </p>
      * 
+     * @param mirror
      * @param path
-     * @param value
-     * @param createNodes
-     *            {@code true} to have nodes to be created if not exist
-     * @return {@code true} if write successfully, {@code false} otherwise (note
-     *         does not exist, for example)
-     * @throws ZooKeeperException
+     * @return
+     * @since 0.4.2
      */
-    public boolean setData(String path, String value, boolean createNodes)
-            throws ZooKeeperException {
-        return _write(path, value != null ? value.getBytes(UTF8) : null, createNodes);
-    }
-
-    private void _invalidateCache(String path) {
-        _invalidateCache(path, null);
-    }
-
-    private void _invalidateCache(String path, byte[] newData) {
-        ICache cacheJson = cacheNameJson != null ? getCache(cacheNameJson) : null;
-        if (cacheJson != null) {
-            cacheJson.delete(path);
+    private ChildData _mirrorNode(Mirror mirror, String path) {
+        ChildData node = mirror.treeCache.getCurrentData(path);
+        if (node == null || !Compression.isCompressed(node.getData())) {
+            return node;
         }
-
-        ICache cacheRaw = cacheNameRaw != null ? getCache(cacheNameRaw) : null;
-        if (cacheRaw != null) {
-            if (newData == null) {
-                cacheRaw.delete(path);
-            } else {
-                cacheRaw.set(path, newData);
+        Stat stat = node.getStat();
+        CachedNode cachedNode = _getFromLocalCache(path);
+        if (cachedNode == null || cachedNode.stat.getMzxid() < stat.getMzxid()) {
+            cachedNode = new CachedNode(Compression.decompress(node.getData()), stat);
+            Cache<String, CachedNode> localCache = this.localCache;
+            if (localCache != null) {
+                cachedNode = _putIfNewer(localCache, path, cachedNode);
             }
         }
+        return new ChildData(path, cachedNode.stat, cachedNode.data);
     }
 
     /**
-     * Connects to ZooKeeper server.
+     * Gets children of a mirrored node.
      * 
-     * @throws IOException
+     * @param mirror
+     * @param path
+     * @return
+     * @since 0.4.2
      */
-    private void _connect() throws IOException {
-        curatorFramework = CuratorFrameworkFactory.newClient(connectString, sessionTimeout, 5000,
-                new RetryNTimes(3, 2000));
-        curatorFramework.start();
+    private static String[] _mirrorChildren(Mirror mirror, String path) {
+        Map<String, ChildData> children = mirror.treeCache.getCurrentChildren(path);
+        return children != null ? children.keySet().toArray(ArrayUtils.EMPTY_STRING_ARRAY) : null;
     }
 
     /**
-     * Disconnects from ZooKeeper server
+     * Checks if a mirror knows that a node does not exist: the node's parent
+     * is loaded and does not have it as a child.
      * 
-     * @throws InterruptedException
+     * <p>
+     * Paths the mirror has not loaded at all (e.g. the root, before it is
+     * created) are not known missing, and are read from ZooKeeper.
+     * </p>
+     * 
+     * @param mirror
+     * @param path
+     * @return
+     * @since 0.4.2
      */
-    private void _close() throws InterruptedException {
+    private static boolean _mirrorMissing(Mirror mirror, String path) {
+        if (path.equals(mirror.root)) {
+            return false;
+        }
+        ZKPaths.PathAndNode pathAndNode = ZKPaths.getPathAndNode(path);
+        Map<String, ChildData> siblings = mirror.treeCache.getCurrentChildren(pathAndNode
+                .getPath());
+        return siblings != null && !siblings.containsKey(pathAndNode.getNode())
+                && mirror.treeCache.getCurrentData(path) == null;
+    }
+
+    private void _destroyMirrors() {
         try {
-            if (curatorFramework != null) {
-                curatorFramework.close();
+            for (Mirror mirror : mirrors) {
+                mirror.treeCache.close();
             }
         } finally {
-            curatorFramework = null;
+            mirrors.clear();
         }
     }
 
-    /**
-     * Re-connects to ZooKeeper server.
-     * 
-     * @throws InterruptedException
-     * @throws IOException
-     */
-    private void _reconnect() throws InterruptedException, IOException {
-        _close();
-        _connect();
+    private void _initMirrors() throws Exception {
+        for (String root : mirrorRoots) {
+            final Mirror mirror = new Mirror(root, TreeCache.newBuilder(_reader(root), root)
+                    .setCacheData(true).build());
+            mirror.treeCache.getListenable().addListener(new TreeCacheListener() {
+                @Override
+                public void childEvent(CuratorFramework client, TreeCacheEvent event)
+                        throws Exception {
+                    switch (event.getType()) {
+                    case INITIALIZED:
+                        mirror.initialized = true;
+                        break;
+                    case NODE_ADDED:
+                    case NODE_UPDATED:
+                    case NODE_REMOVED:
+                        _invalidateCache(event.getData().getPath());
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            });
+            mirrors.add(mirror);
+            mirror.treeCache.start();
+        }
     }
 
     private void _destroyNodeWatcher() {
-        if (cacheNodeWatcher != null) {
+        watchedPaths.clear();
+        lostWatches.clear();
+        ephemeralNodes.clear();
+        if (localCache != null) {
+            try {
+                localCache.invalidateAll();
+            } finally {
+                localCache = null;
+            }
+        }
+        if (missingNodes != null) {
             try {
-                cacheNodeWatcher.invalidateAll();
+                missingNodes.invalidateAll();
             } finally {
-                cacheNodeWatcher = null;
+                missingNodes = null;
             }
         }
     }
 
-    private void _initCacheWatcher() {
-        cacheNodeWatcher = CacheBuilder.newBuilder()
-                .concurrencyLevel(Runtime.getRuntime().availableProcessors()).maximumSize(10000)
-                .expireAfterAccess(3600, TimeUnit.SECONDS)
-                .removalListener(new RemovalListener<String, NodeCache>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<String, NodeCache> event) {
-                        try {
-                            event.getValue().close();
-                        } catch (IOException e) {
-                            LOGGER.warn(e.getMessage(), e);
-                        }
-                    }
-                }).build(new CacheLoader<String, NodeCache>() {
-                    @Override
-                    public NodeCache load(final String path) throws Exception {
-                        final NodeCache nodeCache = new NodeCache(curatorFramework, path);
-                        nodeCache.getListenable().addListener(new NodeCacheListener() {
+    private void _initNodeWatcher() {
+        if (localCacheEnabled) {
+            CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().concurrencyLevel(
+                    Runtime.getRuntime().availableProcessors());
+            if (localCacheMaxBytes > 0) {
+                cacheBuilder.maximumWeight(localCacheMaxBytes).weigher(
+                        new Weigher<String, CachedNode>() {
                             @Override
-                            public void nodeChanged() throws Exception {
-                                ChildData data = nodeCache.getCurrentData();
-                                _invalidateCache(path, data != null ? data.getData() : null);
+                            public int weigh(String path, CachedNode cachedNode) {
+                                return cachedNode.data.length;
                             }
                         });
-                        nodeCache.start();
-                        return nodeCache;
+            } else {
+                cacheBuilder.maximumSize(localCacheMaxEntries);
+            }
+            localCache = cacheBuilder.build();
+        }
+        if (missingNodesCacheSize > 0) {
+            missingNodes = CacheBuilder.newBuilder()
+                    .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                    .maximumSize(missingNodesCacheSize)
+                    .removalListener(new RemovalListener<String, Boolean>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<String, Boolean> event) {
+                            if (event.wasEvicted()) {
+                                // forget the exists-watch too, so that the node can be
+                                // remembered as missing again on next read
+                                watchedPaths.remove(event.getKey());
+                            }
+                        }
+                    }).build();
+        }
+        ConnectionStateListener listener = new ConnectionStateListener() {
+                    @Override
+                    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+                        if (client == curatorFramework) {
+                            readOnly = newState == ConnectionState.READ_ONLY;
+                        }
+                        switch (newState) {
+                        case CONNECTED:
+                        case RECONNECTED:
+                            disconnectedTimestamps.remove(client);
+                            // the event thread is replaced if the session expired
+                            _captureEventThread(client);
+                            break;
+                        case SUSPENDED:
+                        case LOST:
+                        case READ_ONLY:
+                            disconnectedTimestamps.putIfAbsent(client,
+                                    System.currentTimeMillis());
+                            break;
+                        default:
+                            break;
+                        }
+                        long sessionId = _sessionId(client);
+                        if (newState == ConnectionState.CONNECTED) {
+                            sessionIds.put(client, sessionId);
+                        } else if (newState == ConnectionState.RECONNECTED) {
+                            IZooKeeperMetrics metrics = ZooKeeperClient.this.metrics;
+                            if (metrics != null) {
+                                metrics.recordReconnect();
+                            }
+                            Long previousSessionId = sessionIds.put(client, sessionId);
+                            if (lostSessions.remove(client) || previousSessionId == null
+                                    || previousSessionId.longValue() != sessionId
+                                    || sessionId == 0) {
+                                _recover(client);
+                            }
+                            // else: suspended only, the session (with its
+                            // watches and ephemeral nodes) survived
+                        } else if (newState == ConnectionState.LOST) {
+                            lostSessions.add(client);
+                            // watches of this session might not survive: drop
+                            // them and the data they keep up-to-date, until
+                            // recovered
+                            for (String path : watchedPaths) {
+                                if (_reader(path) != client) {
+                                    continue;
+                                }
+                                watchedPaths.remove(path);
+                                CachedNode cachedNode = _getFromLocalCache(path);
+                                _invalidateCache(path);
+                                ChildData lastKnown = cachedNode != null ? new ChildData(path,
+                                        cachedNode.stat, cachedNode.data) : new ChildData(path,
+                                        null, null);
+                                lostWatches.put(path, lastKnown);
+                                if (cachedNode != null && readPolicy == ReadPolicy.SERVE_STALE) {
+                                    staleNodes.put(path, lastKnown);
+                                }
+                            }
+                        }
                     }
-                });
+                };
+        // watches are registered by the read sessions, if any
+        List<CuratorFramework> sessions = new ArrayList<CuratorFramework>();
+        sessions.add(curatorFramework);
+        sessions.addAll(readCuratorFrameworks);
+        for (CuratorFramework session : sessions) {
+            session.getConnectionStateListenable().addListener(listener);
+            if (session.getZookeeperClient().isConnected()) {
+                // CONNECTED has been missed
+                sessionIds.putIfAbsent(session, _sessionId(session));
+            }
+            _captureEventThread(session);
+        }
     }
 
     /**
@@ -791,12 +5189,25 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
     public ZooKeeperClient init() {
         super.init();
 
+        if (metrics == null) {
+            jmxMetrics = new JmxZooKeeperMetrics(this);
+            try {
+                jmxMetrics.register();
+            } catch (Exception e) {
+                LOGGER.warn("Cannot register metrics MBean: " + e.getMessage(), e);
+            }
+            metrics = jmxMetrics;
+        }
+
+        _loadLocalSnapshot();
         try {
             _connect();
-            _initCacheWatcher();
+            _initNodeWatcher();
+            _initMirrors();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        _recover(null);
 
         return this;
     }
@@ -806,6 +5217,18 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
      */
     @Override
     public void destroy() {
+        try {
+            saveLocalSnapshot();
+        } catch (Exception e) {
+            LOGGER.warn("Cannot save local snapshot: " + e.getMessage(), e);
+        }
+
+        try {
+            _destroyMirrors();
+        } catch (Exception e) {
+            LOGGER.warn(e.getMessage(), e);
+        }
+
         try {
             _destroyNodeWatcher();
         } catch (Exception e) {
@@ -818,17 +5241,50 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
             LOGGER.warn(e.getMessage(), e);
         }
 
+        if (jmxMetrics != null) {
+            try {
+                jmxMetrics.unregister();
+            } catch (Exception e) {
+                LOGGER.warn(e.getMessage(), e);
+            } finally {
+                if (metrics == jmxMetrics) {
+                    metrics = null;
+                }
+                jmxMetrics = null;
+            }
+        }
+
         super.destroy();
     }
 
     private void _eventNodeChanged(WatchedEvent event) throws ZooKeeperException {
         Watcher.Event.EventType type = event.getType();
-        String path = event.getPath();
+        final String path = event.getPath();
+        if (type != Watcher.Event.EventType.None) {
+            // watch has been consumed
+            watchedPaths.remove(path);
+        }
         switch (type) {
         case NodeDataChanged: {
-            // reload node data
-            byte[] data = _readRaw(path);
-            _invalidateCache(path, data);
+            // reload node data (and re-watch) in background
+            _readRawAsync(path, new AsyncCallback<Void>(IZooKeeperMetrics.OP_GET_DATA) {
+                @Override
+                protected Void onResult(KeeperException.Code code, CuratorEvent event) {
+                    if (code == KeeperException.Code.OK) {
+                        _invalidateCache(path, _decompress(path, event.getData(), event.getStat()),
+                                event.getStat());
+                    } else {
+                        _invalidateCache(path);
+                    }
+                    return null;
+                }
+
+                @Override
+                protected void onFailure(ZooKeeperException e) {
+                    _invalidateCache(path);
+                    super.onFailure(e);
+                }
+            });
             break;
         }
         case NodeDeleted: {
@@ -836,6 +5292,11 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
             _invalidateCache(path);
             break;
         }
+        case NodeCreated: {
+            // node is no longer missing
+            _invalidateCache(path);
+            break;
+        }
         default: {
             break;
         }
@@ -851,7 +5312,9 @@ public class ZooKeeperClient extends BaseDao implements Watcher, BackgroundCallb
         try {
             switch (state) {
             case Expired: {
-                _reconnect();
+                // Curator establishes a new session by itself; watches and
+                // ephemeral nodes are recovered once reconnected
+                LOGGER.warn("ZooKeeper session expired: " + event);
                 break;
             }
             case SyncConnected: {
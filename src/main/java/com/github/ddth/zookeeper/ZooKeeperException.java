@@ -20,6 +20,42 @@ public class ZooKeeperException extends RuntimeException {
         private static final long serialVersionUID = 1L;
     }
 
+    /**
+     * Throws to indicate that an operation did not complete before its
+     * deadline.
+     * 
+     * @since 0.4.2
+     */
+    public static class OperationTimeoutException extends ZooKeeperException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Throws to indicate that a transaction has been rolled back because one
+     * of its operations failed.
+     * 
+     * @since 0.4.2
+     */
+    public static class TransactionFailedException extends ZooKeeperException {
+        private static final long serialVersionUID = 1L;
+
+        private final int failedOpIndex;
+
+        public TransactionFailedException(int failedOpIndex, Throwable cause) {
+            super(cause);
+            this.failedOpIndex = failedOpIndex;
+        }
+
+        /**
+         * Index of the failed operation, {@code -1} if unknown.
+         * 
+         * @return
+         */
+        public int getFailedOpIndex() {
+            return failedOpIndex;
+        }
+    }
+
     public ZooKeeperException() {
     }
 
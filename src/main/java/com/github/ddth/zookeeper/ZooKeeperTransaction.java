@@ -0,0 +1,223 @@
+package com.github.ddth.zookeeper;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.zookeeper.CreateMode;
+
+/**
+ * A batch of operations to be committed atomically (all-or-nothing) in one
+ * round trip, via ZooKeeper's {@code multi}.
+ * 
+ * <p>
+ * Obtain an instance via {@link ZooKeeperClient#transaction()}, add
+ * operations then call {@link #commit()}.
+ * </p>
+ * 
+ * <p>
+ * Note: unlike {@link ZooKeeperClient#createNode(String)}, parent nodes are
+ * NOT created automatically.
+ * </p>
+ * 
+ * @author Thanh Ba Nguyen <bnguyen2k@gmail.com>
+ * @since 0.4.2
+ */
+public class ZooKeeperTransaction {
+
+    /**
+     * Version value that matches any node version.
+     */
+    public final static int ANY_VERSION = -1;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Type of an operation in a transaction.
+     */
+    static enum OpType {
+        CREATE, SET_DATA, DELETE, CHECK
+    }
+
+    /**
+     * An operation in a transaction.
+     */
+    static class Op {
+        final OpType type;
+        final String path;
+        final byte[] data;
+        final int version;
+        final CreateMode createMode;
+
+        Op(OpType type, String path, byte[] data, int version, CreateMode createMode) {
+            this.type = type;
+            this.path = path;
+            this.data = data;
+            this.version = version;
+            this.createMode = createMode;
+        }
+    }
+
+    private final ZooKeeperClient zkClient;
+    private final List<Op> ops = new ArrayList<Op>();
+
+    ZooKeeperTransaction(ZooKeeperClient zkClient) {
+        this.zkClient = zkClient;
+    }
+
+    /**
+     * Operations added to this transaction, in order.
+     * 
+     * @return
+     */
+    List<Op> getOps() {
+        return Collections.unmodifiableList(ops);
+    }
+
+    /**
+     * Number of operations added to this transaction.
+     * 
+     * @return
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Adds an operation to create an empty node.
+     * 
+     * @param path
+     * @return
+     */
+    public ZooKeeperTransaction create(String path) {
+        return create(path, (byte[]) null, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Adds an operation to create a node, with initial value.
+     * 
+     * @param path
+     * @param value
+     * @return
+     */
+    public ZooKeeperTransaction create(String path, byte[] value) {
+        return create(path, value, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Adds an operation to create a node, with initial value.
+     * 
+     * @param path
+     * @param value
+     * @return
+     */
+    public ZooKeeperTransaction create(String path, String value) {
+        return create(path, value != null ? value.getBytes(UTF8) : null, CreateMode.PERSISTENT);
+    }
+
+    /**
+     * Adds an operation to create a node, with initial value.
+     * 
+     * @param path
+     * @param value
+     * @param createMode
+     * @return
+     */
+    public ZooKeeperTransaction create(String path, byte[] value, CreateMode createMode) {
+        ops.add(new Op(OpType.CREATE, path, value != null ? value : ArrayUtils.EMPTY_BYTE_ARRAY,
+                ANY_VERSION, createMode));
+        return this;
+    }
+
+    /**
+     * Adds an operation to write data to an existing node.
+     * 
+     * @param path
+     * @param value
+     * @return
+     */
+    public ZooKeeperTransaction setData(String path, byte[] value) {
+        return setData(path, value, ANY_VERSION);
+    }
+
+    /**
+     * Adds an operation to write data to an existing node.
+     * 
+     * @param path
+     * @param value
+     * @return
+     */
+    public ZooKeeperTransaction setData(String path, String value) {
+        return setData(path, value != null ? value.getBytes(UTF8) : null, ANY_VERSION);
+    }
+
+    /**
+     * Adds an operation to write data to an existing node, only if node's
+     * current version matches.
+     * 
+     * @param path
+     * @param value
+     * @param expectedVersion
+     *            expected node version, or {@link #ANY_VERSION}
+     * @return
+     */
+    public ZooKeeperTransaction setData(String path, byte[] value, int expectedVersion) {
+        ops.add(new Op(OpType.SET_DATA, path, value, expectedVersion, null));
+        return this;
+    }
+
+    /**
+     * Adds an operation to remove an existing node.
+     * 
+     * @param path
+     * @return
+     */
+    public ZooKeeperTransaction delete(String path) {
+        return delete(path, ANY_VERSION);
+    }
+
+    /**
+     * Adds an operation to remove an existing node, only if node's current
+     * version matches.
+     * 
+     * @param path
+     * @param expectedVersion
+     *            expected node version, or {@link #ANY_VERSION}
+     * @return
+     */
+    public ZooKeeperTransaction delete(String path, int expectedVersion) {
+        ops.add(new Op(OpType.DELETE, path, null, expectedVersion, null));
+        return this;
+    }
+
+    /**
+     * Adds an operation to check that a node exists and its current version
+     * matches.
+     * 
+     * @param path
+     * @param expectedVersion
+     *            expected node version, or {@link #ANY_VERSION}
+     * @return
+     */
+    public ZooKeeperTransaction check(String path, int expectedVersion) {
+        ops.add(new Op(OpType.CHECK, path, null, expectedVersion, null));
+        return this;
+    }
+
+    /**
+     * Commits the transaction.
+     * 
+     * @return results of operations, in the same order as operations were
+     *         added
+     * @throws ZooKeeperException.TransactionFailedException
+     *             if one of the operations failed (no operation has been
+     *             applied)
+     * @throws ZooKeeperException
+     */
+    public List<CuratorTransactionResult> commit() throws ZooKeeperException {
+        return zkClient.commit(this);
+    }
+}
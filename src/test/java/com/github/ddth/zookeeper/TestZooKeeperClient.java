@@ -1,15 +1,41 @@
 package com.github.ddth.zookeeper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.apache.curator.RetrySleeper;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.test.KillSession;
 import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.junit.After;
 import org.junit.Before;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 public class TestZooKeeperClient extends TestCase {
 
     public static Test suite() {
@@ -79,6 +105,1032 @@ public class TestZooKeeperClient extends TestCase {
         }
     }
 
+    @org.junit.Test
+    public void testAsync() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            String path = "/demo/parent/child1";
+            assertFalse(zkClient.nodeExistsAsync(path).get());
+            assertNull(zkClient.getDataAsync(path).get());
+            assertFalse(zkClient.setDataAsync(path, "demo").get());
+            assertTrue(zkClient.setDataAsync(path, "demo", true).get());
+            assertTrue(zkClient.nodeExistsAsync(path).get());
+            assertEquals("demo", zkClient.getDataAsync(path).get());
+            assertEquals(1, zkClient.getChildrenAsync("/demo/parent").get().length);
+            assertFalse(zkClient.removeNodeAsync("/demo").get());
+            assertTrue(zkClient.removeNodeAsync("/demo", true).get());
+            assertFalse(zkClient.nodeExistsAsync("/demo").get());
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testAsyncRemoveTree() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            String path = "/demo/parent/child1";
+            assertTrue(zkClient.setDataAsync(path, "demo", true).get());
+            assertTrue(zkClient.nodeExistsAsync(path).get());
+            assertEquals("demo", zkClient.getDataAsync(path).get());
+            assertTrue(zkClient.removeNodeAsync("/demo", true).get());
+            assertFalse(zkClient.nodeExistsAsync(path).get());
+            assertNull(zkClient.getDataAsync(path).get());
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testGetDataMulti() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            assertTrue(zkClient.createNode("/demo/1", "one"));
+            assertTrue(zkClient.createNode("/demo/2", "two"));
+            Map<String, String> data = zkClient.getData(Arrays.asList("/demo/2", "/demo/0",
+                    "/demo/1"));
+            assertEquals(Arrays.asList("/demo/2", "/demo/0", "/demo/1"),
+                    new ArrayList<String>(data.keySet()));
+            assertEquals("two", data.get("/demo/2"));
+            assertNull(data.get("/demo/0"));
+            assertEquals("one", data.get("/demo/1"));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testTransaction() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            assertTrue(zkClient.createNode("/demo/1", "one"));
+            assertEquals("one", zkClient.getData("/demo/1"));
+            assertEquals(3, zkClient.transaction().setData("/demo/1", "uno")
+                    .create("/demo/2", "dos").check("/demo/1", 1).commit().size());
+            assertEquals("uno", zkClient.getData("/demo/1"));
+            assertEquals("dos", zkClient.getData("/demo/2"));
+
+            try {
+                zkClient.transaction().delete("/demo/2").setData("/demo/1", "one".getBytes(), 0)
+                        .commit();
+                fail("TransactionFailedException expected");
+            } catch (ZooKeeperException.TransactionFailedException e) {
+                assertEquals(1, e.getFailedOpIndex());
+            }
+            assertEquals("dos", zkClient.getData("/demo/2"));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testMirror() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setMirrorRoots("/mirror");
+        try {
+            zkClient.init();
+            assertTrue(zkClient.createNode("/mirror/1", "one"));
+            assertTrue(zkClient.createNode("/other", "other"));
+            // reads fall back to ZooKeeper until the mirror has loaded the node: wait until
+            // the children listing is answered by the mirror (no round trip)
+            JmxZooKeeperMetrics metrics = (JmxZooKeeperMetrics) zkClient.getMetrics();
+            Map<String, Long> operationCounts = metrics.getOperationCounts();
+            String[] children = zkClient.getChildren("/mirror");
+            long timeout = System.currentTimeMillis() + 10000;
+            while ((children == null || children.length != 1
+                    || !operationCounts.equals(metrics.getOperationCounts()))
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+                operationCounts = metrics.getOperationCounts();
+                children = zkClient.getChildren("/mirror");
+            }
+            assertEquals(1, children.length);
+            assertEquals(operationCounts, metrics.getOperationCounts());
+            assertEquals("one", zkClient.getData("/mirror/1"));
+            assertEquals("other", zkClient.getData("/other"));
+
+            // known missing by the mirror: no round trip
+            operationCounts = metrics.getOperationCounts();
+            assertNull(zkClient.getData("/mirror/2"));
+            assertFalse(zkClient.nodeExists("/mirror/2"));
+            assertNull(zkClient.getChildren("/mirror/2"));
+            assertEquals(operationCounts, metrics.getOperationCounts());
+
+            zkClient.getCuratorFramework().setData().forPath("/mirror/1", "uno".getBytes());
+            timeout = System.currentTimeMillis() + 10000;
+            while (!"uno".equals(zkClient.getData("/mirror/1"))
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("uno", zkClient.getData("/mirror/1"));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testMissingNode() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            String path = "/demo/missing";
+            assertNull(zkClient.getData(path));
+            assertNull(zkClient.getData(path));
+
+            // created by another client
+            zkClient.getCuratorFramework().create().creatingParentsIfNeeded()
+                    .forPath(path, "demo".getBytes());
+            long timeout = System.currentTimeMillis() + 10000;
+            while (zkClient.getData(path) == null && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("demo", zkClient.getData(path));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testMissingNodeEviction() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setMissingNodesCacheSize(1);
+        try {
+            zkClient.init();
+            JmxZooKeeperMetrics metrics = (JmxZooKeeperMetrics) zkClient.getMetrics();
+            String[] paths = { "/demo/missing1", "/demo/missing2", "/demo/missing1" };
+            for (int i = 0; i < paths.length; i++) {
+                // each read registers an exists-watch and remembers the node
+                assertNull(zkClient.getData(paths[i]));
+                long timeout = System.currentTimeMillis() + 10000;
+                while (!Long.valueOf(i + 1).equals(
+                        metrics.getOperationCounts().get(IZooKeeperMetrics.OP_EXISTS))
+                        && System.currentTimeMillis() < timeout) {
+                    Thread.sleep(10);
+                }
+                assertEquals(Long.valueOf(i + 1),
+                        metrics.getOperationCounts().get(IZooKeeperMetrics.OP_EXISTS));
+            }
+
+            // remembered again after eviction: no round trip
+            Map<String, Long> operationCounts = metrics.getOperationCounts();
+            assertNull(zkClient.getData("/demo/missing1"));
+            assertEquals(operationCounts, metrics.getOperationCounts());
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testConcurrentReads() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            JmxZooKeeperMetrics metrics = (JmxZooKeeperMetrics) zkClient.getMetrics();
+            String path = "/demo/hot";
+            zkClient.getCuratorFramework().create().creatingParentsIfNeeded()
+                    .forPath(path, "demo".getBytes());
+            List<ListenableFuture<String>> futures = new ArrayList<ListenableFuture<String>>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(zkClient.getDataAsync(path));
+            }
+            for (ListenableFuture<String> future : futures) {
+                assertEquals("demo", future.get());
+            }
+            // one read reached the server
+            assertEquals(Long.valueOf(1),
+                    metrics.getOperationCounts().get(IZooKeeperMetrics.OP_GET_DATA));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testReadOnEventThread() throws Exception {
+        ZooKeeperClient writer = new ZooKeeperClient(zkServer.getConnectString());
+        final ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            writer.init();
+            zkClient.init();
+            final String path = "/demo/event";
+            final String largePath = "/demo/event-large";
+            assertTrue(writer.createNode(path, "demo"));
+            assertTrue(writer.setLargeData(largePath, "large".getBytes()));
+
+            // blocking cold reads from a background callback, i.e. on the
+            // event thread
+            final SettableFuture<List<Object>> result = SettableFuture.create();
+            zkClient.getCuratorFramework().checkExists().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    try {
+                        List<Object> values = new ArrayList<Object>();
+                        values.add(zkClient.getData(path));
+                        values.add(zkClient.getData("/demo/event-missing"));
+                        values.add(zkClient.getData(path,
+                                ZooKeeperClient.Consistency.LINEARIZABLE));
+                        values.add(new String(zkClient.getLargeData(largePath)));
+                        values.add(zkClient.getData(Arrays.asList(path + "-2")).get(path + "-2"));
+                        result.set(values);
+                    } catch (Exception e) {
+                        result.setException(e);
+                    }
+                }
+            }).forPath(path);
+            assertEquals(Arrays.<Object> asList("demo", null, "demo", "large", null),
+                    result.get(10, TimeUnit.SECONDS));
+        } finally {
+            zkClient.destroy();
+            writer.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testLocalCache() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            String path = "/demo/cached";
+            assertTrue(zkClient.createNode(path, "one"));
+            assertEquals("one", zkClient.getData(path));
+
+            // updated by another client
+            zkClient.getCuratorFramework().setData().forPath(path, "two".getBytes());
+            long timeout = System.currentTimeMillis() + 10000;
+            while (!"two".equals(zkClient.getData(path)) && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("two", zkClient.getData(path));
+
+            // removed by another client
+            zkClient.getCuratorFramework().delete().forPath(path);
+            timeout = System.currentTimeMillis() + 10000;
+            while (zkClient.getData(path) != null && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertNull(zkClient.getData(path));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testVersionedWrite() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            String path = "/demo/counter";
+            assertNull(zkClient.getDataWithStat(path));
+            assertTrue(zkClient.createNode(path, "0"));
+            ChildData node = zkClient.getDataWithStat(path);
+            assertEquals(0, node.getStat().getVersion());
+            assertTrue(zkClient.setDataIfVersion(path, "1", 0));
+            assertFalse(zkClient.setDataIfVersion(path, "2", 0));
+            assertEquals("1", zkClient.getData(path));
+
+            Function<byte[], byte[]> increment = new Function<byte[], byte[]>() {
+                @Override
+                public byte[] apply(byte[] data) {
+                    return String.valueOf(Integer.parseInt(new String(data)) + 1).getBytes();
+                }
+            };
+            assertEquals("2", new String(zkClient.update(path, increment)));
+            zkClient.getCuratorFramework().setData().forPath(path, "10".getBytes());
+            assertEquals("11", new String(zkClient.update(path, increment)));
+            assertNull(zkClient.update("/demo/missing", increment));
+
+            // the read after a failed compare-and-set is synced
+            final ZooKeeperClient client = zkClient;
+            final String conflictPath = path;
+            final int[] calls = { 0 };
+            Function<byte[], byte[]> conflicting = new Function<byte[], byte[]>() {
+                @Override
+                public byte[] apply(byte[] data) {
+                    if (calls[0]++ == 0) {
+                        try {
+                            client.getCuratorFramework().setData()
+                                    .forPath(conflictPath, "20".getBytes());
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return String.valueOf(Integer.parseInt(new String(data)) + 1).getBytes();
+                }
+            };
+            JmxZooKeeperMetrics metrics = (JmxZooKeeperMetrics) zkClient.getMetrics();
+            Long syncs = metrics.getOperationCounts().get(IZooKeeperMetrics.OP_SYNC);
+            assertEquals("21", new String(zkClient.update(path, conflicting)));
+            assertEquals(2, calls[0]);
+            assertEquals(Long.valueOf(syncs != null ? syncs + 1 : 1),
+                    metrics.getOperationCounts().get(IZooKeeperMetrics.OP_SYNC));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testTypedRead() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            String path = "/demo/typed";
+            assertTrue(zkClient.setData(path, 1L, Codecs.LONG, true));
+            assertEquals(Long.valueOf(1), zkClient.getData(path, Long.class));
+
+            assertTrue(zkClient.setData(path, "{\"key\":\"value\"}"));
+            Map<?, ?> value = zkClient.getData(path, Map.class);
+            assertEquals("value", value.get("key"));
+            assertSame(value, zkClient.getData(path, Map.class));
+            assertEquals(value, zkClient.getDataJson(path));
+
+            // updated by another client
+            zkClient.getCuratorFramework().setData().forPath(path, "{\"key\":2}".getBytes());
+            long timeout = System.currentTimeMillis() + 10000;
+            while (zkClient.getData(path, Map.class) == value
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, zkClient.getDataAsync(path, Map.class).get().get("key"));
+            assertNull(zkClient.getData("/demo/missing", Map.class));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testCompression() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setCompressionThreshold(1024);
+        try {
+            zkClient.init();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                sb.append("route-").append(i % 10).append(";");
+            }
+            String value = sb.toString();
+            String path = "/demo/compressed";
+            assertTrue(zkClient.setData(path, value, true));
+            byte[] stored = zkClient.getCuratorFramework().getData().forPath(path);
+            assertTrue(stored.length < value.length() / 10);
+            assertEquals(value, zkClient.getData(path));
+            assertEquals(value, new String(zkClient.getDataWithStat(path).getData()));
+
+            // small and legacy (uncompressed) nodes
+            assertTrue(zkClient.setData("/demo/small", "small", true));
+            assertEquals("small", new String(zkClient.getCuratorFramework().getData()
+                    .forPath("/demo/small")));
+            zkClient.getCuratorFramework().create().forPath("/demo/legacy", value.getBytes());
+            assertEquals(value, zkClient.getData("/demo/legacy"));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testLargeData() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setLargeDataChunkSize(100 * 1024);
+        try {
+            zkClient.init();
+            byte[] value = new byte[2 * 1024 * 1024];
+            new Random(1).nextBytes(value);
+            String path = "/demo/large";
+            assertTrue(zkClient.setLargeData(path, value));
+            assertEquals(21, zkClient.getChildren(path).length);
+            byte[] read = zkClient.getLargeData(path);
+            assertTrue(Arrays.equals(value, read));
+            assertSame(read, zkClient.getLargeData(path));
+
+            // replaced: chunks of the old generation are removed
+            byte[] newValue = Arrays.copyOf(value, 150 * 1024);
+            assertTrue(zkClient.setLargeData(path, newValue));
+            long timeout = System.currentTimeMillis() + 10000;
+            while (zkClient.getChildren(path).length != 2 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, zkClient.getChildren(path).length);
+            assertTrue(Arrays.equals(newValue, zkClient.getLargeData(path)));
+
+            assertNull(zkClient.getLargeData("/demo/missing"));
+            assertTrue(zkClient.setData("/demo/small", "small", true));
+            assertEquals("small", new String(zkClient.getLargeData("/demo/small")));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testLargeDataOnMissingNode() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        // the exists-watch of the missing node lives on the read session
+        zkClient.setReadSessionCount(1);
+        try {
+            zkClient.init();
+            String path = "/demo/large-missing";
+            for (int i = 0; i < 10; i++) {
+                assertNull(zkClient.getLargeData(path + i));
+                assertTrue(zkClient.setLargeData(path + i, "large".getBytes()));
+                assertEquals("large", new String(zkClient.getLargeData(path + i)));
+            }
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testRemoveTree() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            List<ListenableFuture<Boolean>> futures = new ArrayList<ListenableFuture<Boolean>>();
+            for (int i = 0; i < 5; i++) {
+                assertTrue(zkClient.createNode("/demo/tree/" + i));
+                for (int j = 0; j < 500; j++) {
+                    futures.add(zkClient.createNodeAsync("/demo/tree/" + i + "/" + j, "value"));
+                }
+            }
+            for (ListenableFuture<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+            assertEquals("value", zkClient.getData("/demo/tree/0/0"));
+
+            assertTrue(zkClient.removeNode("/demo/tree", true));
+            assertFalse(zkClient.nodeExists("/demo/tree"));
+            assertNull(zkClient.getData("/demo/tree/0/0"));
+            assertTrue(zkClient.nodeExists("/demo"));
+            assertTrue(zkClient.removeNode("/demo/tree", true));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testRemoveTreeAsync() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        // watches live on the read session, so they fire after removal
+        zkClient.setReadSessionCount(1);
+        try {
+            zkClient.init();
+            Map<String, String> values = new HashMap<String, String>();
+            for (int i = 0; i < 5; i++) {
+                for (int j = 0; j < 100; j++) {
+                    String path = "/demo/tree/" + i + "/" + j;
+                    assertTrue(zkClient.createNode(path, "value"));
+                    values.put(path, null);
+                }
+            }
+            for (String path : values.keySet()) {
+                assertEquals("value", zkClient.getData(path));
+            }
+            assertTrue(zkClient.removeNodeAsync("/demo/tree", true).get());
+            assertEquals(values, zkClient.getData(values.keySet()));
+            assertFalse(zkClient.nodeExists("/demo/tree"));
+            assertTrue(zkClient.removeNodeAsync("/demo/tree", true).get());
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testRemoveTreeOnEventThread() throws Exception {
+        final ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            for (int i = 0; i < 3; i++) {
+                assertTrue(zkClient.createNode("/demo/tree/" + i + "/child", "value"));
+            }
+
+            // blocking recursive removal from a watcher, i.e. on the event
+            // thread
+            final SettableFuture<Boolean> result = SettableFuture.create();
+            zkClient.getCuratorFramework().checkExists().usingWatcher(new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    try {
+                        result.set(zkClient.removeNode("/demo/tree", true));
+                    } catch (Exception e) {
+                        result.setException(e);
+                    }
+                }
+            }).forPath("/demo/trigger");
+            assertTrue(zkClient.createNode("/demo/trigger"));
+            assertTrue(result.get(10, TimeUnit.SECONDS));
+            assertFalse(zkClient.nodeExists("/demo/tree"));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testWalk() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            for (int i = 0; i < 10; i++) {
+                for (int j = 0; j < 10; j++) {
+                    assertTrue(zkClient.createNode("/demo/walk/" + i + "/" + j, i + "-" + j));
+                }
+            }
+            final Map<String, String> visited = new HashMap<String, String>();
+            INodeVisitor visitor = new INodeVisitor() {
+                @Override
+                public boolean visit(ChildData node, int depth) {
+                    assertNull(visited.put(node.getPath(), new String(node.getData())));
+                    return true;
+                }
+            };
+            assertEquals(111, zkClient.walk("/demo/walk", visitor));
+            assertEquals("3-7", visited.get("/demo/walk/3/7"));
+
+            visited.clear();
+            assertEquals(11, zkClient.walk("/demo/walk", 1, null, visitor));
+            assertFalse(visited.containsKey("/demo/walk/3/7"));
+
+            visited.clear();
+            Predicate<String> filter = new Predicate<String>() {
+                @Override
+                public boolean apply(String path) {
+                    return path.startsWith("/demo/walk/3");
+                }
+            };
+            assertEquals(12, zkClient.walk("/demo/walk", Integer.MAX_VALUE, filter, visitor));
+
+            assertEquals(0, zkClient.walk("/demo/missing", visitor));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testExportImport() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            for (int i = 0; i < 10; i++) {
+                for (int j = 0; j < 10; j++) {
+                    assertTrue(zkClient.createNode("/demo/export/" + i + "/" + j, i + "-" + j));
+                }
+            }
+            assertTrue(zkClient.createEphemeralNode("/demo/export/ephemeral"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(111, zkClient.exportSubtree("/demo/export", out));
+
+            assertEquals(111, zkClient.importSubtree("/clone/export",
+                    new ByteArrayInputStream(out.toByteArray())));
+            assertEquals("3-7", zkClient.getData("/clone/export/3/7"));
+            assertEquals(10, zkClient.getChildren("/clone/export").length);
+
+            // import over existing nodes
+            assertTrue(zkClient.setData("/clone/export/3/7", "modified"));
+            assertEquals(111, zkClient.importSubtree("/clone/export",
+                    new ByteArrayInputStream(out.toByteArray())));
+            assertEquals("3-7", zkClient.getData("/clone/export/3/7"));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testLocalSnapshot() throws Exception {
+        File file = File.createTempFile("zk-snapshot", ".bin");
+        file.delete();
+        try {
+            ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+            zkClient.setLocalSnapshotFile(file.getAbsolutePath());
+            try {
+                zkClient.init();
+                assertTrue(zkClient.createNode("/demo/snapshot/a", "value-a"));
+                assertTrue(zkClient.createNode("/demo/snapshot/b", "value-b"));
+                assertEquals("value-a", zkClient.getData("/demo/snapshot/a"));
+                assertEquals("value-b", zkClient.getData("/demo/snapshot/b"));
+            } finally {
+                zkClient.destroy();
+            }
+            assertTrue(file.isFile());
+
+            // ensemble unreachable: served from the snapshot
+            zkClient = new ZooKeeperClient("127.0.0.1:1", 3000);
+            zkClient.setLocalSnapshotFile(file.getAbsolutePath());
+            try {
+                zkClient.init();
+                assertEquals("value-a", zkClient.getData("/demo/snapshot/a"));
+                assertEquals(0, zkClient.getDataWithStat("/demo/snapshot/b").getStat()
+                        .getVersion());
+            } finally {
+                zkClient.destroy();
+            }
+
+            // revalidated in background
+            ZooKeeperClient writer = new ZooKeeperClient(zkServer.getConnectString());
+            try {
+                writer.init();
+                assertTrue(writer.setData("/demo/snapshot/a", "new-value"));
+                assertTrue(writer.removeNode("/demo/snapshot/b"));
+            } finally {
+                writer.destroy();
+            }
+            zkClient = new ZooKeeperClient(zkServer.getConnectString());
+            zkClient.setLocalSnapshotFile(file.getAbsolutePath());
+            try {
+                zkClient.init();
+                long timeout = System.currentTimeMillis() + 10000;
+                while (!"new-value".equals(zkClient.getData("/demo/snapshot/a"))
+                        && System.currentTimeMillis() < timeout) {
+                    Thread.sleep(10);
+                }
+                assertEquals("new-value", zkClient.getData("/demo/snapshot/a"));
+                while (zkClient.getData("/demo/snapshot/b") != null
+                        && System.currentTimeMillis() < timeout) {
+                    Thread.sleep(10);
+                }
+                assertNull(zkClient.getData("/demo/snapshot/b"));
+            } finally {
+                zkClient.destroy();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testServeStale() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString(), 2000);
+        zkClient.setReadPolicy(ZooKeeperClient.ReadPolicy.SERVE_STALE);
+        try {
+            zkClient.init();
+            String path = "/demo/stale";
+            assertTrue(zkClient.createNode(path, "value"));
+            assertEquals("value", zkClient.getData(path));
+            assertEquals(0, zkClient.getStaleness());
+
+            zkServer.stop();
+            long timeout = System.currentTimeMillis() + 10000;
+            while (zkClient.getStaleness() < 5000 && System.currentTimeMillis() < timeout) {
+                assertEquals("value", zkClient.getData(path));
+                Thread.sleep(100);
+            }
+            assertFalse(zkClient.isConnected());
+            assertTrue(zkClient.getStaleness() >= 5000);
+            assertEquals("value", zkClient.getData(path));
+
+            zkServer.restart();
+            timeout = System.currentTimeMillis() + 20000;
+            while (!zkClient.isConnected() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(100);
+            }
+            assertTrue(zkClient.isConnected());
+            assertEquals(0, zkClient.getStaleness());
+            zkClient.getCuratorFramework().setData().forPath(path, "new-value".getBytes());
+            timeout = System.currentTimeMillis() + 10000;
+            while (!"new-value".equals(zkClient.getData(path))
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("new-value", zkClient.getData(path));
+
+            // session expired: served until revalidated
+            KillSession.kill(zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper(),
+                    zkServer.getConnectString());
+            assertEquals("new-value", zkClient.getData(path));
+            zkClient.getCuratorFramework().setData().forPath(path, "newer-value".getBytes());
+            timeout = System.currentTimeMillis() + 10000;
+            while (!"newer-value".equals(zkClient.getData(path))
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("newer-value", zkClient.getData(path));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testRetryPolicy() throws Exception {
+        final List<Long> sleeps = new ArrayList<Long>();
+        RetrySleeper sleeper = new RetrySleeper() {
+            @Override
+            public void sleepFor(long time, TimeUnit unit) {
+                sleeps.add(unit.toMillis(time));
+            }
+        };
+        BackoffRetryPolicy retryPolicy = new BackoffRetryPolicy(100, 300, 4, 1000);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(retryPolicy.allowRetry(i, 0, sleeper));
+        }
+        assertFalse(retryPolicy.allowRetry(4, 0, sleeper));
+        assertTrue(sleeps.get(0) >= 50 && sleeps.get(0) <= 100);
+        assertTrue(sleeps.get(1) >= 100 && sleeps.get(1) <= 200);
+        assertTrue(sleeps.get(2) >= 150 && sleeps.get(2) <= 300);
+        assertTrue(sleeps.get(3) >= 150 && sleeps.get(3) <= 300);
+        assertTrue(retryPolicy.allowRetry(2, 990, sleeper));
+        assertTrue(sleeps.get(4) <= 10);
+        assertFalse(retryPolicy.allowRetry(1, 1000, sleeper));
+
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setConnectionTimeout(1000).setOperationTimeout(500);
+        try {
+            zkClient.init();
+            assertTrue(zkClient.createNode("/demo/retry", "value"));
+            zkServer.stop();
+            long startTime = System.currentTimeMillis();
+            try {
+                zkClient.getData("/demo/other");
+                fail("ZooKeeperException expected");
+            } catch (ZooKeeperException.OperationTimeoutException e) {
+            } catch (ZooKeeperException.ClientDisconnectedException e) {
+            }
+            assertTrue(System.currentTimeMillis() - startTime < 2000);
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testSessionRecovery() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        ZooKeeperClient writer = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            writer.init();
+            assertTrue(zkClient.createNode("/demo/recovery/node", "value"));
+            assertEquals("value", zkClient.getData("/demo/recovery/node"));
+            assertNull(zkClient.getData("/demo/recovery/missing"));
+            assertTrue(zkClient.createEphemeralNode("/demo/recovery/ephemeral", "alive"));
+            String sequential = zkClient.transaction()
+                    .create("/demo/recovery/seq-", null, CreateMode.EPHEMERAL_SEQUENTIAL)
+                    .commit().get(0).getResultPath();
+            assertTrue(zkClient.nodeExists(sequential));
+            long sessionId = zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper()
+                    .getSessionId();
+
+            KillSession.kill(zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper(),
+                    zkServer.getConnectString());
+            long timeout = System.currentTimeMillis() + 20000;
+            ChildData ephemeral = null;
+            while (System.currentTimeMillis() < timeout) {
+                ephemeral = writer.getDataWithStat("/demo/recovery/ephemeral");
+                if (ephemeral != null && ephemeral.getStat().getEphemeralOwner() != sessionId) {
+                    break;
+                }
+                Thread.sleep(50);
+            }
+            assertNotNull(ephemeral);
+            assertEquals("alive", new String(ephemeral.getData()));
+            assertTrue(ephemeral.getStat().getEphemeralOwner() != sessionId);
+            // sequential nodes are not re-created
+            assertFalse(writer.nodeExists(sequential));
+            assertFalse(writer.nodeExists("/demo/recovery/seq-"));
+
+            // watches rebuilt
+            assertTrue(writer.setData("/demo/recovery/node", "new-value"));
+            assertTrue(writer.createNode("/demo/recovery/missing", "created"));
+            while (!"new-value".equals(zkClient.getData("/demo/recovery/node"))
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("new-value", zkClient.getData("/demo/recovery/node"));
+            while (zkClient.getData("/demo/recovery/missing") == null
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("created", zkClient.getData("/demo/recovery/missing"));
+        } finally {
+            writer.destroy();
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testEphemeralNodeTakenOver() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        ZooKeeperClient other = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            other.init();
+            assertTrue(zkClient.createEphemeralNode("/demo/taken", "mine"));
+            assertTrue(zkClient.createEphemeralNode("/demo/marker", "mine"));
+
+            // taken over by another client before this one recovers
+            long sessionId = zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper()
+                    .getSessionId();
+            KillSession.kill(zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper(),
+                    zkServer.getConnectString());
+            assertTrue(other.createEphemeralNode("/demo/taken", "theirs"));
+            _waitForEphemeralOwnerChange(other, "/demo/marker", sessionId);
+            assertEquals("theirs", other.getData("/demo/taken"));
+
+            // no longer tracked: not re-created after it has been removed
+            assertTrue(other.removeNode("/demo/taken"));
+            sessionId = zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper()
+                    .getSessionId();
+            KillSession.kill(zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper(),
+                    zkServer.getConnectString());
+            _waitForEphemeralOwnerChange(other, "/demo/marker", sessionId);
+            assertFalse(zkClient.nodeExists("/demo/taken"));
+        } finally {
+            other.destroy();
+            zkClient.destroy();
+        }
+    }
+
+    private static void _waitForEphemeralOwnerChange(ZooKeeperClient zkClient, String path,
+            long sessionId) throws Exception {
+        long timeout = System.currentTimeMillis() + 20000;
+        ChildData node = null;
+        while (System.currentTimeMillis() < timeout) {
+            node = zkClient.getDataWithStat(path);
+            if (node != null && node.getStat().getEphemeralOwner() != sessionId) {
+                break;
+            }
+            Thread.sleep(50);
+        }
+        assertNotNull(node);
+        assertTrue(node.getStat().getEphemeralOwner() != sessionId);
+    }
+
+    @org.junit.Test
+    public void testReadSession() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setReadConnectString(zkServer.getConnectString()).setReadOnlyModeAllowed(true);
+        try {
+            zkClient.init();
+            assertNotSame(zkClient.getCuratorFramework(), zkClient.getReadCuratorFramework());
+            assertFalse(zkClient.isReadOnly());
+            String path = "/demo/read/node";
+            assertSame(zkClient.getReadCuratorFramework(), zkClient.getReadCuratorFramework(path));
+            assertFalse(zkClient.nodeExists(path));
+            assertTrue(zkClient.createNode(path, "value"));
+            assertTrue(zkClient.nodeExists(path));
+            assertEquals(1, zkClient.getChildren("/demo/read").length);
+            assertEquals("value", zkClient.getData(path));
+
+            // watched by the read session
+            zkClient.getCuratorFramework().setData().forPath(path, "new-value".getBytes());
+            long timeout = System.currentTimeMillis() + 10000;
+            while (!"new-value".equals(zkClient.getData(path))
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("new-value", zkClient.getData(path));
+            assertTrue(zkClient.setData(path, "own-write"));
+            assertEquals("own-write", zkClient.getData(path));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testReadSessionLoss() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setReadSessionCount(1);
+        try {
+            zkClient.init();
+            JmxZooKeeperMetrics metrics = (JmxZooKeeperMetrics) zkClient.getMetrics();
+            String path = "/demo/read/loss";
+            assertTrue(zkClient.createNode(path, "value"));
+            assertEquals("value", zkClient.getData(path));
+            Long reads = metrics.getOperationCounts().get(IZooKeeperMetrics.OP_GET_DATA);
+
+            // the main session does not own the watch: cached data is kept
+            KillSession.kill(zkClient.getCuratorFramework().getZookeeperClient().getZooKeeper(),
+                    zkServer.getConnectString());
+            long timeout = System.currentTimeMillis() + 10000;
+            while ((metrics.getReconnectCount() < 1 || !zkClient.isConnected())
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertTrue(zkClient.isConnected());
+            assertEquals(0, zkClient.getStaleness());
+            assertEquals("value", zkClient.getData(path));
+            assertEquals(reads, metrics.getOperationCounts().get(IZooKeeperMetrics.OP_GET_DATA));
+
+            // the read session owns the watch: rebuilt after reconnect
+            KillSession.kill(zkClient.getReadCuratorFramework(path).getZookeeperClient()
+                    .getZooKeeper(), zkServer.getConnectString());
+            timeout = System.currentTimeMillis() + 10000;
+            while ((metrics.getReconnectCount() < 2 || !zkClient.isConnected())
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            zkClient.getCuratorFramework().setData().forPath(path, "new-value".getBytes());
+            while (!"new-value".equals(zkClient.getData(path))
+                    && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            assertEquals("new-value", zkClient.getData(path));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testReadPool() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        zkClient.setReadSessionCount(3);
+        try {
+            zkClient.init();
+            Set<CuratorFramework> readers = new HashSet<CuratorFramework>();
+            for (int i = 0; i < 30; i++) {
+                String path = "/demo/pool/node" + i;
+                assertTrue(zkClient.createNode(path, "value" + i));
+                assertEquals("value" + i, zkClient.getData(path));
+                readers.add(zkClient.getReadCuratorFramework(path));
+                assertSame(zkClient.getReadCuratorFramework(path),
+                        zkClient.getReadCuratorFramework(path));
+            }
+            assertEquals(3, readers.size());
+            assertFalse(readers.contains(zkClient.getCuratorFramework()));
+
+            // read-your-writes
+            String path = "/demo/pool/node0";
+            zkClient.getCuratorFramework().setData().forPath(path, "new-value".getBytes());
+            assertEquals("new-value", new String(zkClient.getDataRaw(path, true)));
+            ChildData node = zkClient.getDataWithStat(path, true);
+            assertEquals("new-value", new String(node.getData()));
+            assertEquals(1, node.getStat().getVersion());
+            zkClient.getCuratorFramework().delete().forPath(path);
+            assertNull(zkClient.getDataRaw(path, true));
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testLinearizableRead() throws Exception {
+        ZooKeeperClient writer = new ZooKeeperClient(zkServer.getConnectString());
+        ZooKeeperClient reader = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            writer.init();
+            reader.init();
+            JmxZooKeeperMetrics metrics = (JmxZooKeeperMetrics) reader.getMetrics();
+            String path = "/demo/linearizable";
+            assertTrue(writer.createNode(path, "value"));
+            assertEquals("value", reader.getData(path));
+            assertEquals("value", reader.getData(path, ZooKeeperClient.Consistency.SEQUENTIAL));
+            assertNull(metrics.getOperationCounts().get(IZooKeeperMetrics.OP_SYNC));
+
+            // each read is synced first
+            assertTrue(writer.setData(path, "new-value"));
+            assertEquals("new-value",
+                    reader.getData(path, ZooKeeperClient.Consistency.LINEARIZABLE));
+            assertEquals(Long.valueOf(1),
+                    metrics.getOperationCounts().get(IZooKeeperMetrics.OP_SYNC));
+            assertTrue(writer.setData(path, "newer-value"));
+            ChildData node = reader.getDataWithStat(path,
+                    ZooKeeperClient.Consistency.LINEARIZABLE);
+            assertEquals("newer-value", new String(node.getData()));
+            assertEquals(2, node.getStat().getVersion());
+            assertEquals(Long.valueOf(2),
+                    metrics.getOperationCounts().get(IZooKeeperMetrics.OP_SYNC));
+            assertTrue(writer.setData(path, "newest-value"));
+            ListenableFuture<byte[]> future = reader.getDataRawAsync(path,
+                    ZooKeeperClient.Consistency.LINEARIZABLE);
+            assertEquals("newest-value", new String(future.get()));
+            assertEquals(Long.valueOf(3),
+                    metrics.getOperationCounts().get(IZooKeeperMetrics.OP_SYNC));
+
+            assertTrue(writer.removeNode(path));
+            assertNull(reader.getDataRaw(path, ZooKeeperClient.Consistency.LINEARIZABLE));
+            assertEquals(Long.valueOf(4),
+                    metrics.getOperationCounts().get(IZooKeeperMetrics.OP_SYNC));
+        } finally {
+            reader.destroy();
+            writer.destroy();
+        }
+    }
+
+    @org.junit.Test
+    public void testMetrics() throws Exception {
+        ZooKeeperClient zkClient = new ZooKeeperClient(zkServer.getConnectString());
+        try {
+            zkClient.init();
+            JmxZooKeeperMetrics metrics = (JmxZooKeeperMetrics) zkClient.getMetrics();
+            String path = "/demo/metrics";
+            assertTrue(zkClient.createNode(path, "value"));
+            assertEquals("value", zkClient.getData(path));
+            assertEquals("value", zkClient.getData(path));
+            try {
+                zkClient.transaction().delete("/demo/missing").commit();
+                fail("TransactionFailedException expected");
+            } catch (ZooKeeperException.TransactionFailedException e) {
+            }
+
+            Map<String, Long> operationCounts = metrics.getOperationCounts();
+            assertEquals(Long.valueOf(1), operationCounts.get(IZooKeeperMetrics.OP_CREATE));
+            assertEquals(Long.valueOf(1), operationCounts.get(IZooKeeperMetrics.OP_GET_DATA));
+            assertEquals(Long.valueOf(1), operationCounts.get(IZooKeeperMetrics.OP_MULTI));
+            assertEquals(Long.valueOf(1),
+                    metrics.getErrorCounts().get(IZooKeeperMetrics.OP_MULTI + ":NONODE"));
+            assertEquals(0.5, metrics.getCacheHitRatio().get(IZooKeeperMetrics.CACHE_RAW));
+            assertEquals(1, metrics.getWatcherCount());
+        } finally {
+            zkClient.destroy();
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         ZooKeeperClient zkClient = new ZooKeeperClient("localhost:2181");
         try {
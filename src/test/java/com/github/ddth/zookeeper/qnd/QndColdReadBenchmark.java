@@ -0,0 +1,91 @@
+package com.github.ddth.zookeeper.qnd;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.test.TestingServer;
+
+import com.github.ddth.zookeeper.ZooKeeperClient;
+
+/**
+ * Compares cold reads of {@link ZooKeeperClient#getDataRaw(String)} (one
+ * watched {@code getData}) against the former read path ({@code getData}
+ * followed by a non-blocking {@link NodeCache#start()} on the same node, whose
+ * own reads run in background).
+ * 
+ * <p>
+ * For the former read path, both the caller's latency and the time until all
+ * nodes are actually watched (i.e. all background reads are done) are
+ * reported.
+ * </p>
+ */
+public class QndColdReadBenchmark {
+
+    private final static int NUM_NODES = 2000;
+
+    /**
+     * @return {caller's time, time until all nodes are watched}
+     */
+    private static long[] benchmarkNodeCache(CuratorFramework framework, String prefix)
+            throws Exception {
+        NodeCache[] nodeCaches = new NodeCache[NUM_NODES];
+        long t = System.nanoTime();
+        for (int i = 0; i < NUM_NODES; i++) {
+            String path = prefix + i;
+            framework.getData().forPath(path);
+            nodeCaches[i] = new NodeCache(framework, path);
+            nodeCaches[i].start();
+        }
+        long dCaller = System.nanoTime() - t;
+        for (NodeCache nodeCache : nodeCaches) {
+            while (nodeCache.getCurrentData() == null) {
+                Thread.sleep(0, 100000);
+            }
+        }
+        long dWatched = System.nanoTime() - t;
+        for (NodeCache nodeCache : nodeCaches) {
+            nodeCache.close();
+        }
+        return new long[] { dCaller, dWatched };
+    }
+
+    private static long benchmarkZooKeeperClient(ZooKeeperClient client, String prefix) {
+        long t = System.nanoTime();
+        for (int i = 0; i < NUM_NODES; i++) {
+            client.getDataRaw(prefix + i);
+        }
+        return System.nanoTime() - t;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestingServer zkServer = new TestingServer();
+        try {
+            ZooKeeperClient client = new ZooKeeperClient(zkServer.getConnectString());
+            CuratorFramework framework = CuratorFrameworkFactory.newClient(
+                    zkServer.getConnectString(), new RetryNTimes(3, 2000));
+            try {
+                client.init();
+                framework.start();
+                for (int i = 0; i < NUM_NODES; i++) {
+                    client.createNode("/bench/a/" + i, "value-" + i);
+                    client.createNode("/bench/b/" + i, "value-" + i);
+                }
+
+                long[] dNodeCache = benchmarkNodeCache(framework, "/bench/a/");
+                long dClient = benchmarkZooKeeperClient(client, "/bench/b/");
+                System.out.println("Cold reads of " + NUM_NODES + " nodes:");
+                System.out.println("\tgetData + NodeCache    : " + dNodeCache[0] / 1000
+                        / NUM_NODES + " us/read (caller), " + dNodeCache[1] / 1000 / NUM_NODES
+                        + " us/read (until watched)");
+                System.out.println("\tZooKeeperClient.getData: " + dClient / 1000 / NUM_NODES
+                        + " us/read");
+            } finally {
+                framework.close();
+                client.destroy();
+            }
+        } finally {
+            zkServer.close();
+        }
+    }
+}
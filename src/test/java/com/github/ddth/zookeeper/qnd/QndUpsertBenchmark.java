@@ -0,0 +1,67 @@
+package com.github.ddth.zookeeper.qnd;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.test.TestingServer;
+
+import com.github.ddth.zookeeper.ZooKeeperClient;
+
+/**
+ * Compares latency of {@link ZooKeeperClient#setData(String, String, boolean)}
+ * (write first, create only if missing) against the former exists-then-write
+ * upsert, on existing nodes.
+ */
+public class QndUpsertBenchmark {
+
+    private final static int NUM_WRITES = 5000;
+
+    private static long benchmarkExistsThenWrite(CuratorFramework framework, String path)
+            throws Exception {
+        byte[] data = "value".getBytes();
+        long t = System.nanoTime();
+        for (int i = 0; i < NUM_WRITES; i++) {
+            if (framework.checkExists().forPath(path) == null) {
+                framework.create().creatingParentsIfNeeded().forPath(path, data);
+            } else {
+                framework.setData().forPath(path, data);
+            }
+        }
+        return System.nanoTime() - t;
+    }
+
+    private static long benchmarkUpsert(ZooKeeperClient client, String path) {
+        long t = System.nanoTime();
+        for (int i = 0; i < NUM_WRITES; i++) {
+            client.setData(path, "value", true);
+        }
+        return System.nanoTime() - t;
+    }
+
+    public static void main(String[] args) throws Exception {
+        TestingServer zkServer = new TestingServer();
+        try {
+            ZooKeeperClient client = new ZooKeeperClient(zkServer.getConnectString());
+            try {
+                client.init();
+                client.createNode("/bench/a");
+                client.createNode("/bench/b");
+
+                // warm up
+                benchmarkExistsThenWrite(client.getCuratorFramework(), "/bench/a");
+                benchmarkUpsert(client, "/bench/b");
+
+                long dExistsThenWrite = benchmarkExistsThenWrite(client.getCuratorFramework(),
+                        "/bench/a");
+                long dUpsert = benchmarkUpsert(client, "/bench/b");
+                System.out.println("Upserts of an existing node (" + NUM_WRITES + " writes):");
+                System.out.println("\texists + setData       : " + dExistsThenWrite / 1000
+                        / NUM_WRITES + " us/write");
+                System.out.println("\tZooKeeperClient.setData: " + dUpsert / 1000 / NUM_WRITES
+                        + " us/write");
+            } finally {
+                client.destroy();
+            }
+        } finally {
+            zkServer.close();
+        }
+    }
+}